@@ -0,0 +1,54 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.ImageProcessor;
+
+// The filters of the menu, from the working image to the image it presents.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageProcessorBenchmark {
+	@Param({ "640x480", "1920x1080", "4000x3000" })
+	public String size;
+
+	private BufferedImage image;
+
+	@Setup
+	public void setup() {
+		image = Inputs.image(size);
+	}
+
+	@Benchmark
+	public BufferedImage greyscale() {
+		return new ImageProcessor(Inputs.LOGGER, image, Inputs.WEIGHTS).greyscale();
+	}
+
+	@Benchmark
+	public BufferedImage changeHue() {
+		return new ImageProcessor(Inputs.LOGGER, image, Inputs.WEIGHTS).changeHue();
+	}
+
+	// Scales up by half in both directions.
+	@Benchmark
+	public BufferedImage nearestNeighbor() {
+		return new ImageProcessor(Inputs.LOGGER, image, Inputs.WEIGHTS, image.getWidth() * 3 / 2,
+				image.getHeight() * 3 / 2).nearestNeighbor();
+	}
+}
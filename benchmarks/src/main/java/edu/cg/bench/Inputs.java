@@ -0,0 +1,89 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+import edu.cg.Logger;
+import edu.cg.RGBWeights;
+
+// The inputs of the benchmarks. They are synthetic and depend on their parameters alone, so every run (on any
+// machine, without any image files) measures the same pixels.
+final class Inputs {
+	static final Logger LOGGER = s -> {
+	};
+	static final RGBWeights WEIGHTS = new RGBWeights(1, 1, 1);
+	static final long SEED = 0x6CEB01L;
+
+	private Inputs() {
+	}
+
+	// The width of a "WxH" size parameter.
+	static int width(String size) {
+		return Integer.parseInt(size.substring(0, size.indexOf('x')));
+	}
+
+	static int height(String size) {
+		return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+	}
+
+	// A colour gradient with rectangles of flat colour over it and a little noise everywhere, so the energy has
+	// both flat regions and edges for the seams to avoid.
+	static BufferedImage image(String size) {
+		int width = width(size);
+		int height = height(size);
+		SplittableRandom random = new SplittableRandom(SEED);
+		int[] pixels = new int[width * height];
+
+		for (int y = 0; y < height; ++y)
+			for (int x = 0; x < width; ++x)
+				pixels[y * width + x] = rgb(255 * x / width, 255 * y / height, 255 * (x + y) / (width + height));
+
+		for (int k = 0; k < 24; ++k) {
+			int w = 1 + random.nextInt(width / 4 + 1);
+			int h = 1 + random.nextInt(height / 4 + 1);
+			int left = random.nextInt(width - w + 1);
+			int top = random.nextInt(height - h + 1);
+			int color = random.nextInt(1 << 24);
+			for (int y = top; y < top + h; ++y)
+				for (int x = left; x < left + w; ++x)
+					pixels[y * width + x] = color;
+		}
+
+		for (int i = 0; i < pixels.length; ++i) {
+			int noise = random.nextInt(17) - 8;
+			int p = pixels[i];
+			pixels[i] = rgb(((p >> 16) & 0xFF) + noise, ((p >> 8) & 0xFF) + noise, (p & 0xFF) + noise);
+		}
+
+		BufferedImage ans = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ans.setRGB(0, 0, width, height, pixels, 0, width);
+		return ans;
+	}
+
+	private static int rgb(int r, int g, int b) {
+		return 0xFF000000 | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+	}
+
+	private static int clamp(int c) {
+		return Math.max(0, Math.min(255, c));
+	}
+
+	// The mask of an object in the middle of the image: a rectangle with the image's proportions covering the
+	// given fraction of its pixels. Its rows are sqrt(density) of the image's width, which is the number of seams
+	// the object removal carves.
+	static boolean[][] mask(String size, double density) {
+		int width = width(size);
+		int height = height(size);
+		double side = Math.sqrt(density);
+		int w = (int) Math.round(width * side);
+		int h = (int) Math.round(height * side);
+		int left = (width - w) / 2;
+		int top = (height - h) / 2;
+
+		boolean[][] ans = new boolean[height][width];
+		for (int y = top; y < top + h; ++y)
+			for (int x = left; x < left + w; ++x)
+				ans[y][x] = true;
+		return ans;
+	}
+}
@@ -0,0 +1,63 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.SeamsCarver;
+
+// The object removal of the menu (MenuWindow.removeObjectFromImage, which needs a window to run): carves away
+// as many seams as the widest row of the mask, through the masked pixels, then carves the image back to its width.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectRemovalBenchmark {
+	@Param({ "320x240", "640x480", "1280x720" })
+	public String size;
+
+	// The fraction of the pixels masked (see Inputs.mask).
+	@Param({ "0.01", "0.05", "0.1" })
+	public double density;
+
+	private BufferedImage image;
+	private boolean[][] mask;
+	private int seams;
+
+	@Setup
+	public void setup() {
+		image = Inputs.image(size);
+		mask = Inputs.mask(size, density);
+
+		int widest = 0;
+		for (boolean[] row : mask) {
+			int count = 0;
+			for (boolean b : row)
+				if (b)
+					++count;
+			widest = Math.max(widest, count);
+		}
+		seams = Math.min(image.getWidth() / 3 - 1, widest);
+	}
+
+	@Benchmark
+	public BufferedImage removeObject() {
+		int width = image.getWidth();
+		SeamsCarver first = new SeamsCarver(Inputs.LOGGER, image, width - seams, Inputs.WEIGHTS, mask);
+		BufferedImage ans = first.resize();
+		return new SeamsCarver(Inputs.LOGGER, ans, width, Inputs.WEIGHTS, first.getMaskAfterSeamCarving()).resize();
+	}
+}
@@ -0,0 +1,68 @@
+package edu.cg.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.ImageProcessor;
+import edu.cg.PixelBuffer;
+import edu.cg.PixelKernels;
+
+// The pointwise filters alone, on one thread and without the image conversions: the scalar operators against the
+// Vector API kernels. The vector runs fail in their setup where PixelKernels does not pick the vector kernels (see
+// PixelKernels for when it does), so every result is of the kernels its label names.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelKernelsBenchmark {
+	@Param({ "640x480", "1920x1080", "4000x3000" })
+	public String size;
+
+	@Param({ "scalar", "vector" })
+	public String kernels;
+
+	private int[] src;
+	private int[] dst;
+	private PixelKernels.Kernel greyscale;
+	private PixelKernels.Kernel hue;
+
+	@Setup
+	public void setup() {
+		src = PixelBuffer.fromImage(Inputs.image(size)).pixels;
+		dst = new int[src.length];
+		if (kernels.equals("scalar")) {
+			greyscale = PixelKernels.scalar(ImageProcessor.greyscaleOperator(Inputs.WEIGHTS));
+			hue = PixelKernels.scalar(ImageProcessor.hueOperator(Inputs.WEIGHTS));
+		} else {
+			if (!PixelKernels.isVectorized())
+				throw new IllegalStateException("The vector kernels do not run: " + PixelKernels.description());
+			greyscale = PixelKernels.greyscale(Inputs.WEIGHTS);
+			hue = PixelKernels.hue(Inputs.WEIGHTS);
+		}
+	}
+
+	@Benchmark
+	public int[] greyscale() {
+		greyscale.apply(src, dst, 0, src.length);
+		return dst;
+	}
+
+	@Benchmark
+	public int[] changeHue() {
+		hue.apply(src, dst, 0, src.length);
+		return dst;
+	}
+}
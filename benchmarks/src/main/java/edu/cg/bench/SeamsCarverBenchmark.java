@@ -0,0 +1,120 @@
+package edu.cg.bench;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.SeamsCarver;
+import edu.cg.SeamsCarver.Orientation;
+
+// Seam carving by seams seams, vertical ones (the width) and horizontal ones (the height), in both directions,
+// and the seams the menu shows. No pixel is masked.
+//
+// mode is how the carver finds its seams: updating the energy and costs around every removed seam (incremental,
+// the default), recomputing them for every seam (full), 8 seams per cost matrix (batch) or on a 4x smaller copy
+// first (pyramid). threads is the size of the for-each pool, which the cost matrix rows are split across at every
+// size here (1 runs without a pool). The whole grid takes long; -p mode=... -p threads=... narrows it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeamsCarverBenchmark {
+	@Param({ "320x240", "640x480", "1280x720" })
+	public String size;
+
+	// At most half the smaller side of the smallest size.
+	@Param({ "16", "64", "100" })
+	public int seams;
+
+	@Param({ "incremental", "full", "batch", "pyramid" })
+	public String mode;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private BufferedImage image;
+	private boolean[][] mask;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() {
+		image = Inputs.image(size);
+		mask = Inputs.mask(size, 0);
+		pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	private SeamsCarver carver(Orientation orientation, int outSize) {
+		SeamsCarver ans = new SeamsCarver(Inputs.LOGGER, image, outSize, Inputs.WEIGHTS, mask, orientation);
+		switch (mode) {
+		case "incremental":
+			break;
+		case "full":
+			ans.setIncrementalMode(false);
+			break;
+		case "batch":
+			ans.setSeamBatchSize(8);
+			break;
+		case "pyramid":
+			ans.setPyramidLevels(2);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown carving mode: " + mode);
+		}
+		// the carver only splits rows of at least DEFAULT_PARALLEL_COST_MIN_WIDTH cells, wider than these sizes
+		ans.setForEachPool(pool);
+		ans.setParallelCostMinWidth(0);
+		return ans;
+	}
+
+	@Benchmark
+	public BufferedImage reduceWidth() {
+		return carver(Orientation.VERTICAL, image.getWidth() - seams).resize();
+	}
+
+	@Benchmark
+	public BufferedImage increaseWidth() {
+		return carver(Orientation.VERTICAL, image.getWidth() + seams).resize();
+	}
+
+	@Benchmark
+	public BufferedImage reduceHeight() {
+		return carver(Orientation.HORIZONTAL, image.getHeight() - seams).resize();
+	}
+
+	@Benchmark
+	public BufferedImage increaseHeight() {
+		return carver(Orientation.HORIZONTAL, image.getHeight() + seams).resize();
+	}
+
+	@Benchmark
+	public BufferedImage showVerticalSeams() {
+		return carver(Orientation.VERTICAL, image.getWidth() - seams).showSeams(Color.RED.getRGB());
+	}
+
+	@Benchmark
+	public BufferedImage showHorizontalSeams() {
+		return carver(Orientation.HORIZONTAL, image.getHeight() - seams).showSeams(Color.BLACK.getRGB());
+	}
+}
@@ -0,0 +1,93 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.ImageTransform;
+import edu.cg.PixelBuffer;
+
+// The rotations horizontal seam carving was once built on (the rotate helpers of MenuWindow, now ImageTransform):
+// of the image, both ways, as BufferedImages and as PixelBuffers, and of the mask. The getRGB ones are the original
+// helpers, pixel by pixel through getRGB and setRGB, as the baseline.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+	@Param({ "640x480", "1920x1080", "4000x3000" })
+	public String size;
+
+	private BufferedImage image;
+	private PixelBuffer buffer;
+	private boolean[][] mask;
+
+	@Setup
+	public void setup() {
+		image = Inputs.image(size);
+		buffer = PixelBuffer.fromImage(image);
+		mask = Inputs.mask(size, 0.25);
+	}
+
+	@Benchmark
+	public BufferedImage rotateImageClockwiseGetRGB() {
+		int imgWidth = image.getWidth();
+		int imgHeight = image.getHeight();
+		BufferedImage ans = new BufferedImage(imgHeight, imgWidth, image.getType());
+		for (int y = 0; y < imgWidth; ++y)
+			for (int x = 0; x < imgHeight; ++x)
+				ans.setRGB(x, y, image.getRGB(y, imgHeight - 1 - x));
+
+		return ans;
+	}
+
+	@Benchmark
+	public BufferedImage rotateImageCounterclockwiseGetRGB() {
+		int imgWidth = image.getWidth();
+		int imgHeight = image.getHeight();
+		BufferedImage ans = new BufferedImage(imgHeight, imgWidth, image.getType());
+		for (int y = 0; y < imgWidth; ++y)
+			for (int x = 0; x < imgHeight; ++x)
+				ans.setRGB(x, y, image.getRGB(imgWidth - 1 - y, x));
+
+		return ans;
+	}
+
+	@Benchmark
+	public BufferedImage rotateImageClockwise() {
+		return PixelBuffer.fromImage(image).rotateClockwise().toImage(image.getType());
+	}
+
+	@Benchmark
+	public BufferedImage rotateImageCounterclockwise() {
+		return PixelBuffer.fromImage(image).rotateCounterclockwise().toImage(image.getType());
+	}
+
+	@Benchmark
+	public PixelBuffer rotateClockwise() {
+		return ImageTransform.ROTATE_90.apply(buffer);
+	}
+
+	@Benchmark
+	public PixelBuffer rotateCounterclockwise() {
+		return ImageTransform.ROTATE_270.apply(buffer);
+	}
+
+	@Benchmark
+	public boolean[][] rotateMaskClockwise() {
+		return ImageTransform.ROTATE_90.apply(mask);
+	}
+}
@@ -0,0 +1,492 @@
+package edu.cg;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+
+import edu.cg.SeamsCarver.Orientation;
+
+// Runs one operation over many images without the GUI (see USAGE). The images are processed on a pool of
+// worker threads, one image per thread, and written in the order they were given. At most inFlight images are
+// held in memory at a time, from the moment one is read until its result is written, so a slow image holds up
+// the writing of the ones after it but never lets the reading run ahead of the writing without bound.
+public class Batch {
+	public enum Operation {
+		GREYSCALE, HUE, NEAREST, CARVE;
+	}
+
+	public static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: java edu.cg.Main <greyscale|hue|nearest|carve> [options] <image|directory|@list>...",
+			"  --out DIR         where the results are written (required)",
+			"  --width N|N%      output width, in pixels or percents of the input (default: the input's)",
+			"  --height N|N%     output height, in pixels or percents of the input (default: the input's)",
+			"  --weights R,G,B   RGB weights (default: 1,1,1)",
+			"  --threads N       worker threads (default: one per core)",
+			"  --in-flight N     images held in memory at a time (default: twice the threads)",
+			"  --format NAME     output format (default: png)",
+			"  --quiet           only log one line per image",
+			"  --metrics         log the time and memory of every phase of every image, and their totals (not",
+			"                    with --strips)",
+			"  --strips          stream images too large for the heap strip by strip (not for carve, and only",
+			"                    written as " + StripProcessor.OUTPUT_FORMATS + ")",
+			"  --seam-cache DIR  keep the seams carve finds in DIR (up to 1 GB), for the later runs on the same",
+			"                    images (only when one side shrinks)",
+			"  --carve-mode MODE how carve finds its seams: exact (default), batch[:SIZE[,GAP]] (default 8,2) or",
+			"                    pyramid[:LEVELS[,CORRIDOR]] (default 2 levels, and a corridor of 2^(LEVELS+1));",
+			"                    see SeamsCarver.setSeamBatchSize and setPyramidLevels. Images shrunk on both",
+			"                    sides are always carved exactly",
+			"A directory stands for the images in it, and @list for the paths listed in the file, one per line.");
+
+	public final Operation operation;
+	private File outDir;
+	private String width = "100%";
+	private String height = "100%";
+	private RGBWeights weights = new RGBWeights(1, 1, 1);
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int inFlight = -1;
+	private String format = "png";
+	private boolean quiet;
+	private boolean strips;
+	private SeamCache seamCache;
+	private Consumer<SeamsCarver> carveMode; // null for the exact mode
+	private Metrics.Totals metrics;
+	private final List<File> inputs = new ArrayList<>();
+
+	private Batch(Operation operation) {
+		this.operation = operation;
+	}
+
+	public static void main(String[] args) {
+		Batch batch;
+		try {
+			batch = parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		try {
+			System.exit(batch.run() == 0 ? 0 : 1);
+		} catch (InterruptedException e) {
+			System.exit(1);
+		}
+	}
+
+	// MARK: Arguments
+	public static Batch parse(String[] args) {
+		if (args.length == 0)
+			throw new IllegalArgumentException("No operation was given");
+
+		Batch ans;
+		try {
+			ans = new Batch(Operation.valueOf(args[0].toUpperCase(Locale.ROOT)));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown operation: " + args[0]);
+		}
+
+		for (int i = 1; i < args.length; ++i) {
+			String arg = args[i];
+			if (!arg.startsWith("--")) {
+				ans.addInput(arg);
+				continue;
+			}
+			if (arg.equals("--quiet")) {
+				ans.quiet = true;
+				continue;
+			}
+			if (arg.equals("--strips")) {
+				ans.strips = true;
+				continue;
+			}
+			if (arg.equals("--metrics")) {
+				ans.metrics = new Metrics.Totals();
+				continue;
+			}
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value for " + arg);
+
+			String value = args[++i];
+			switch (arg) {
+			case "--out":
+				ans.outDir = new File(value);
+				break;
+			case "--width":
+				ans.width = value;
+				size(value, 1);
+				break;
+			case "--height":
+				ans.height = value;
+				size(value, 1);
+				break;
+			case "--weights":
+				String[] rgb = value.split(",");
+				if (rgb.length != 3)
+					throw new IllegalArgumentException("The weights must be R,G,B: " + value);
+				ans.weights = new RGBWeights(positive(rgb[0], arg), positive(rgb[1], arg), positive(rgb[2], arg));
+				break;
+			case "--threads":
+				ans.threads = positive(value, arg);
+				break;
+			case "--in-flight":
+				ans.inFlight = positive(value, arg);
+				break;
+			case "--format":
+				if (!ImageIO.getImageWritersByFormatName(value).hasNext())
+					throw new IllegalArgumentException("Can't write images as " + value);
+				ans.format = value;
+				break;
+			case "--carve-mode":
+				ans.carveMode = carveMode(value);
+				break;
+			case "--seam-cache":
+				try {
+					ans.seamCache = new SeamCache(Paths.get(value), SeamCache.DEFAULT_MAX_BYTES);
+				} catch (UncheckedIOException e) {
+					throw new IllegalArgumentException(e.getMessage());
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		if (ans.outDir == null)
+			throw new IllegalArgumentException("No output directory was given");
+		if (ans.inputs.isEmpty())
+			throw new IllegalArgumentException("No images were given");
+		if (ans.inFlight < 0)
+			ans.inFlight = 2 * ans.threads;
+		if (ans.strips && ans.metrics != null)
+			throw new IllegalArgumentException("Images processed in strips are not measured");
+		if (ans.strips && ans.operation == Operation.CARVE)
+			throw new IllegalArgumentException("Seam carving needs the whole image, it can't run in strips");
+		if (ans.seamCache != null && ans.operation != Operation.CARVE)
+			throw new IllegalArgumentException("Only carve uses the seam cache");
+		if (ans.carveMode != null && ans.operation != Operation.CARVE)
+			throw new IllegalArgumentException("Only carve has a carve mode");
+		if (ans.strips && !StripProcessor.OUTPUT_FORMATS.contains(ans.format.toLowerCase(Locale.ROOT)))
+			throw new IllegalArgumentException("In strips, images can only be written as " + StripProcessor.OUTPUT_FORMATS);
+
+		Map<String, File> outputs = new HashMap<>();
+		for (File in : ans.inputs) {
+			File clash = outputs.put(ans.outputFile(in).getName(), in);
+			if (clash != null)
+				throw new IllegalArgumentException(clash + " and " + in + " would both be written to " + ans.outputFile(in));
+		}
+
+		return ans;
+	}
+
+	private void addInput(String arg) {
+		if (arg.startsWith("@")) {
+			try {
+				for (String line : Files.readAllLines(new File(arg.substring(1)).toPath()))
+					if (!line.trim().isEmpty())
+						addInput(line.trim());
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Can't read the list " + arg.substring(1));
+			}
+			return;
+		}
+
+		File file = new File(arg);
+		if (!file.isDirectory()) {
+			inputs.add(file);
+			return;
+		}
+
+		Set<String> suffixes = new HashSet<>();
+		for (String suffix : ImageIO.getReaderFileSuffixes())
+			suffixes.add(suffix.toLowerCase(Locale.ROOT));
+		File[] files = file.listFiles();
+		Arrays.sort(files);
+		for (File f : files)
+			if (f.isFile() && suffixes.contains(suffix(f.getName())))
+				inputs.add(f);
+	}
+
+	private static String suffix(String name) {
+		int dot = name.lastIndexOf('.');
+		return (dot < 0) ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+	}
+
+	private static int positive(String value, String option) {
+		try {
+			int ans = Integer.parseInt(value.trim());
+			if (ans > 0)
+				return ans;
+		} catch (NumberFormatException e) {
+		}
+		throw new IllegalArgumentException(option + " must be a positive number: " + value);
+	}
+
+	// The size a --width or --height value gives an image whose side is inSize pixels.
+	private static int size(String value, int inSize) {
+		if (!value.endsWith("%"))
+			return positive(value, "A size");
+
+		int percent = positive(value.substring(0, value.length() - 1), "A size");
+		return Math.max(1, (int) Math.round(inSize * percent / 100.0));
+	}
+
+	// The setters a --carve-mode value stands for, or null for the exact mode.
+	private static Consumer<SeamsCarver> carveMode(String value) {
+		int colon = value.indexOf(':');
+		String mode = (colon < 0) ? value : value.substring(0, colon);
+		String[] params = (colon < 0) ? new String[0] : value.substring(colon + 1).split(",", -1);
+		if (params.length > 2)
+			throw new IllegalArgumentException("Too many carve mode parameters: " + value);
+
+		switch (mode.toLowerCase(Locale.ROOT)) {
+		case "exact":
+			if (params.length > 0)
+				throw new IllegalArgumentException("The exact carve mode has no parameters: " + value);
+			return null;
+		case "batch": {
+			int size = (params.length > 0) ? positive(params[0], "The seam batch size") : 8;
+			int gap = (params.length > 1) ? positive(params[1], "The seam batch gap") : 2;
+			return sc -> {
+				sc.setSeamBatchSize(size);
+				sc.setSeamBatchGap(gap);
+			};
+		}
+		case "pyramid": {
+			int levels = (params.length > 0) ? positive(params[0], "The number of pyramid levels") : 2;
+			int corridor = (params.length > 1) ? positive(params[1], "The pyramid corridor") : 0;
+			return sc -> {
+				sc.setPyramidLevels(levels);
+				sc.setPyramidCorridor(corridor);
+			};
+		}
+		default:
+			throw new IllegalArgumentException("Unknown carve mode: " + value);
+		}
+	}
+
+	private File outputFile(File in) {
+		String name = in.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(outDir, ((dot < 0) ? name : name.substring(0, dot)) + "." + format);
+	}
+
+	// MARK: Running
+	private static class Result {
+		final File in;
+		final BufferedImage out;
+		final long pixels;
+		final Exception error;
+
+		Result(File in, BufferedImage out, long pixels, Exception error) {
+			this.in = in;
+			this.out = out;
+			this.pixels = pixels;
+			this.error = error;
+		}
+	}
+
+	// Processes all the images and returns the number of them that failed.
+	public int run() throws InterruptedException {
+		if (!outDir.isDirectory() && !outDir.mkdirs())
+			throw new IllegalArgumentException("Can't create the output directory " + outDir);
+
+		ConsoleLogger logger = new ConsoleLogger(System.out, null);
+		logger.log(operation.name().toLowerCase(Locale.ROOT) + ": " + inputs.size() + " images, " + threads
+				+ " threads, at most " + inFlight + " in flight.");
+
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Semaphore permits = new Semaphore(inFlight);
+		BlockingQueue<Future<Result>> pending = new LinkedBlockingQueue<>();
+
+		// Submitting is done on its own thread, as it waits for permits that only the writing below releases.
+		Thread submitter = new Thread(() -> {
+			try {
+				for (File in : inputs) {
+					permits.acquire();
+					pending.put(pool.submit(() -> process(in)));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "batch-submitter");
+		submitter.setDaemon(true);
+		submitter.start();
+
+		int failed = 0;
+		long pixels = 0;
+		try {
+			for (File in : inputs) {
+				Result result;
+				try {
+					result = pending.take().get();
+				} catch (ExecutionException e) {
+					result = new Result(in, null, 0, new RuntimeException(e.getCause().toString()));
+				}
+
+				try {
+					if (result.error == null) {
+						if (result.out != null)
+							write(result);
+						pixels += result.pixels;
+						logger.log(in + " -> " + outputFile(in));
+					}
+				} catch (Exception e) {
+					result = new Result(in, null, 0, e);
+				} finally {
+					permits.release();
+				}
+
+				if (result.error != null) {
+					++failed;
+					logger.log(in + " failed: " + result.error.getMessage());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int done = inputs.size() - failed;
+		logger.log(String.format(Locale.ROOT, "%d images (%d failed) in %.2f s: %.2f images/s, %.2f megapixels/s",
+				done, failed, seconds, done / seconds, pixels / 1e6 / seconds));
+		if (metrics != null) {
+			logger.log("Metrics: " + metrics);
+			logger.log("Pixel kernels: " + PixelKernels.description());
+		}
+		if (seamCache != null) {
+			logger.log(String.format(Locale.ROOT, "Seam cache: %d hits, %d misses, %d evictions, %d entries (%.1f MB)",
+					seamCache.hits(), seamCache.misses(), seamCache.evictions(), seamCache.size(),
+					seamCache.sizeInBytes() / 1e6));
+		}
+
+		return failed;
+	}
+
+	private Result process(File in) {
+		try {
+			Logger logger = quiet ? s -> {
+			} : new ConsoleLogger(System.out, in.getName());
+			if (strips)
+				return processInStrips(in, logger);
+
+			BufferedImage img = read(in);
+			int outWidth = size(width, img.getWidth());
+			int outHeight = size(height, img.getHeight());
+
+			Metrics.Listener listener = (metrics == null) ? null : m -> {
+				logger.log(m.toString());
+				metrics.operationDone(m);
+			};
+
+			BufferedImage ans;
+			ImageProcessor ip = new ImageProcessor(logger, img, weights, outWidth, outHeight);
+			ip.setMetricsListener(listener);
+			switch (operation) {
+			case GREYSCALE:
+				ans = ip.greyscale();
+				break;
+			case HUE:
+				ans = ip.changeHue();
+				break;
+			case NEAREST:
+				ans = ip.nearestNeighbor();
+				break;
+			default:
+				ans = carve(logger, img, outWidth, outHeight, listener);
+				break;
+			}
+
+			return new Result(in, ans, (long) img.getWidth() * img.getHeight(), null);
+		} catch (Exception e) {
+			return new Result(in, null, 0, e);
+		}
+	}
+
+	// With a seam cache, an image that only gets narrower (or only lower) is resized from its seam order index,
+	// which the cache reads back or builds and keeps; the other sizes are retargeted as without one. The carve mode
+	// is part of the cache's keys, so the seams of one mode are never read back for another.
+	private BufferedImage carve(Logger logger, BufferedImage img, int outWidth, int outHeight,
+			Metrics.Listener listener) {
+		boolean[][] mask = new boolean[img.getHeight()][img.getWidth()];
+		Consumer<SeamsCarver> setup = (carveMode != null) ? carveMode : s -> {
+		};
+		SeamsCarver sc;
+		int outSize;
+		if (seamCache != null && outWidth < img.getWidth() && outHeight == img.getHeight()) {
+			sc = new SeamsCarver(logger, img, outWidth, weights, mask);
+			outSize = outWidth;
+		} else if (seamCache != null && outWidth == img.getWidth() && outHeight < img.getHeight()) {
+			sc = new SeamsCarver(logger, img, outHeight, weights, mask, Orientation.HORIZONTAL);
+			outSize = outHeight;
+		} else {
+			return SeamsCarver.retarget(logger, img, outWidth, outHeight, weights, mask, listener, setup);
+		}
+
+		sc.setMetricsListener(listener);
+		setup.accept(sc);
+		return seamCache.seamOrderIndex(sc).resize(img, outSize);
+	}
+
+	// Writes the result itself, as it goes.
+	private Result processInStrips(File in, Logger logger) throws IOException {
+		StripProcessor sp = new StripProcessor(logger);
+		File out = outputFile(in);
+		Dimension size = StripProcessor.imageSize(in);
+
+		switch (operation) {
+		case GREYSCALE:
+			sp.greyscale(in, out, weights);
+			break;
+		case HUE:
+			sp.changeHue(in, out, weights);
+			break;
+		default:
+			sp.nearestNeighbor(in, out, size(width, size.width), size(height, size.height));
+			break;
+		}
+
+		return new Result(in, null, (long) size.width * size.height, null);
+	}
+
+	// Images of a custom type are converted, as the processors create their results with the input's type.
+	private static BufferedImage read(File in) throws IOException {
+		BufferedImage img = ImageIO.read(in);
+		if (img == null)
+			throw new IOException("Not an image that can be read: " + in);
+		if (img.getType() != BufferedImage.TYPE_CUSTOM)
+			return img;
+
+		int type = img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		return PixelBuffer.fromImage(img).toImage(type);
+	}
+
+	private void write(Result result) throws IOException {
+		File out = outputFile(result.in);
+		if (!ImageIO.write(result.out, format, out))
+			throw new IOException("Can't write this image as " + format);
+	}
+}
@@ -0,0 +1,19 @@
+package edu.cg;
+
+import java.io.PrintStream;
+
+// A Logger for the command line: prints every line to a stream, prefixed with a tag (the image it is about).
+public class ConsoleLogger implements Logger {
+	private final PrintStream out;
+	private final String prefix;
+
+	public ConsoleLogger(PrintStream out, String tag) {
+		this.out = out;
+		prefix = (tag == null) ? "" : "[" + tag + "] ";
+	}
+
+	@Override
+	public void log(String s) {
+		out.println(prefix + s);
+	}
+}
@@ -2,12 +2,31 @@ package edu.cg;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 public abstract class FunctioalForEachLoops {
+	// MARK: Primitive visitors - unlike the boxed consumers, calling these never allocates.
+	@FunctionalInterface
+	public interface PixelVisitor {
+		void visit(int y, int x);
+	}
+
+	@FunctionalInterface
+	public interface RowRangeVisitor {
+		// Visits the rows fromY (inclusive) to toY (exclusive).
+		void visit(int fromY, int toY);
+	}
+
+	public static final int DEFAULT_STRIP_HEIGHT = 32;
+
 	private int width;
 	private int height;
+	private ForkJoinPool pool;
+	private int stripHeight;
 	
 	private class Params {
 		public final int width, height;
@@ -25,9 +44,58 @@ public abstract class FunctioalForEachLoops {
 	
 	private Deque<Params> stack;
 	
+	// Splits [fromY, toY) in halves until the strips are at most stripHeight rows high.
+	@SuppressWarnings("serial")
+	private static class RowStrips extends RecursiveAction {
+		private final RowRangeVisitor visitor;
+		private final int fromY, toY, stripHeight;
+		
+		public RowStrips(RowRangeVisitor visitor, int fromY, int toY, int stripHeight) {
+			this.visitor = visitor;
+			this.fromY = fromY;
+			this.toY = toY;
+			this.stripHeight = stripHeight;
+		}
+		
+		@Override
+		protected void compute() {
+			if(toY - fromY <= stripHeight) {
+				visitor.visit(fromY, toY);
+			} else {
+				int midY = (fromY + toY) >>> 1;
+				invokeAll(new RowStrips(visitor, fromY, midY, stripHeight),
+						new RowStrips(visitor, midY, toY, stripHeight));
+			}
+		}
+	}
+	
 	public FunctioalForEachLoops() {
 		width = height = 0;
 		stack = new ArrayDeque<>();
+		pool = null;
+		stripHeight = DEFAULT_STRIP_HEIGHT;
+	}
+	
+	// Makes forEachPixel, forEachRow and forEachRowRange run their rows in strips on the given pool.
+	// A null pool (the default) runs everything sequentially on the calling thread.
+	// The boxed loops and forEachColumn always run sequentially.
+	public final void setForEachPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	public final void setForEachStripHeight(int stripHeight) {
+		if(stripHeight < 1)
+			throw new IllegalArgumentException("The strip height must be positive");
+		
+		this.stripHeight = stripHeight;
+	}
+	
+	public final ForkJoinPool getForEachPool() {
+		return pool;
+	}
+	
+	public final int getForEachStripHeight() {
+		return stripHeight;
 	}
 	
 	public final void setForEachParameters(int width, int height) {
@@ -76,4 +144,45 @@ public abstract class FunctioalForEachLoops {
 		for(int y = 0; y < height; ++y)
 			action.accept(y);
 	}
+	
+	public final void forEachPixel(PixelVisitor visitor) {
+		int width = this.width;
+		forEachRowRange((fromY, toY) -> {
+			for(int y = fromY; y < toY; ++y)
+				for(int x = 0; x < width; ++x)
+					visitor.visit(y, x);
+		});
+	}
+	
+	public final void forEachColumn(IntConsumer action) {
+		for(int x = 0; x < width; ++x)
+			action.accept(x);
+	}
+	
+	public final void forEachRow(IntConsumer action) {
+		forEachRowRange((fromY, toY) -> {
+			for(int y = fromY; y < toY; ++y)
+				action.accept(y);
+		});
+	}
+	
+	// Hands whole blocks of rows to the visitor, so it can run a tight loop of its own over them: all the rows
+	// at once when running sequentially, or strips of up to getForEachStripHeight() rows when running on a pool.
+	public final void forEachRowRange(RowRangeVisitor visitor) {
+		if(pool == null || height <= stripHeight)
+			visitor.visit(0, height);
+		else
+			pool.invoke(new RowStrips(visitor, 0, height, stripHeight));
+	}
+
+	// Writes the kernel's filter of every pixel of src to dst (which may be src itself), row range by row range,
+	// and returns dst. The for-each parameters are left as they were.
+	public final PixelBuffer map(PixelBuffer src, PixelKernels.Kernel kernel, PixelBuffer dst) {
+		pushForEachParameters();
+		setForEachParameters(src.width, src.height);
+		forEachRowRange((fromY, toY) -> kernel.apply(src.pixels, dst.pixels, fromY * src.width, toY * src.width));
+		popForEachParameters();
+
+		return dst;
+	}
 }
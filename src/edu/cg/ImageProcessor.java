@@ -1,7 +1,8 @@
 package edu.cg;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntUnaryOperator;
 
 public class ImageProcessor extends FunctioalForEachLoops {
 	// MARK: fields
@@ -13,6 +14,11 @@ public class ImageProcessor extends FunctioalForEachLoops {
 	public final int workingImageType;
 	public final int outWidth;
 	public final int outHeight;
+	private PixelBuffer workingBuffer;
+	private volatile boolean cancelled;
+	private Metrics.Listener metricsListener;
+	// The metrics of the running operation, when a listener is set.
+	Metrics metrics;
 
 	// MARK: constructors
 	public ImageProcessor(Logger logger, BufferedImage workingImage, RGBWeights rgbWeights, int outWidth,
@@ -37,26 +43,46 @@ public class ImageProcessor extends FunctioalForEachLoops {
 	// Changes the picture's hue - example
 	public BufferedImage changeHue() {
 		logger.log("Preparing for hue changing...");
+		beginOperation("hue");
 
-		int r = rgbWeights.redWeight;
-		int g = rgbWeights.greenWeight;
-		int b = rgbWeights.blueWeight;
-		int max = rgbWeights.maxWeight;
+		PixelBuffer src = workingBuffer();
+		phaseStart(Metrics.Phase.HUE);
+		PixelBuffer hue = changeHue(src);
+		phaseEnd(Metrics.Phase.HUE, (long) src.width * src.height);
+		BufferedImage ans = hue.toImage(workingImageType);
 
-		BufferedImage ans = newEmptyInputSizedImage();
+		logger.log("Changing hue done!");
 
-		forEach((y, x) -> {
-			Color c = new Color(workingImage.getRGB(x, y));
-			int red = r * c.getRed() / max;
-			int green = g * c.getGreen() / max;
-			int blue = b * c.getBlue() / max;
-			Color color = new Color(red, green, blue);
-			ans.setRGB(x, y, color.getRGB());
-		});
+		return endOperation(ans);
+	}
 
-		logger.log("Changing hue done!");
+	public final PixelBuffer changeHue(PixelBuffer src) {
+		return map(src, PixelKernels.hue(rgbWeights));
+	}
 
-		return ans;
+	// The hue change of a single ARGB pixel: every channel scaled by its weight over the largest weight.
+	public static IntUnaryOperator hueOperator(RGBWeights weights) {
+		int r = weights.redWeight;
+		int g = weights.greenWeight;
+		int b = weights.blueWeight;
+		int max = weights.maxWeight;
+
+		return c -> {
+			int red = r * ((c >> 16) & 0xFF) / max;
+			int green = g * ((c >> 8) & 0xFF) / max;
+			int blue = b * (c & 0xFF) / max;
+			return 0xFF000000 | (red << 16) | (green << 8) | blue;
+		};
+	}
+
+	// A new buffer holding op applied to every pixel of src.
+	public final PixelBuffer map(PixelBuffer src, IntUnaryOperator op) {
+		return map(src, PixelKernels.scalar(op));
+	}
+
+	// A new buffer holding the kernel's filter of every pixel of src, row range by row range.
+	public final PixelBuffer map(PixelBuffer src, PixelKernels.Kernel kernel) {
+		return map(src, kernel, new PixelBuffer(src.width, src.height));
 	}
 
 	// Sets the ForEach parameters with the input dimensions
@@ -86,55 +112,142 @@ public class ImageProcessor extends FunctioalForEachLoops {
 
 	// A helper method that deep copies the current working image.
 	public final BufferedImage duplicateWorkingImage() {
-		BufferedImage output = newEmptyInputSizedImage();
+		return workingBuffer().toImage(workingImageType);
+	}
 
-		forEach((y, x) -> output.setRGB(x, y, workingImage.getRGB(x, y)));
+	// Asks a running operation to stop: the long ones (seam carving) check it as they go and throw a
+	// CancellationException, may be from another thread.
+	public final void cancel() {
+		cancelled = true;
+	}
+
+	public final boolean isCancelled() {
+		return cancelled;
+	}
 
-		return output;
+	public final void checkCancelled() {
+		if (cancelled)
+			throw new CancellationException("The operation was cancelled");
+	}
+
+	// MARK: Metrics
+	// Hands the metrics of every operation this processor completes from now on to the listener (see Metrics).
+	// Null stops the measuring.
+	public final void setMetricsListener(Metrics.Listener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	final void beginOperation(String name) {
+		metrics = (metricsListener == null) ? null : new Metrics(name, inWidth, inHeight);
+	}
+
+	// Reports the operation's metrics, if measured, and returns its result.
+	final <T> T endOperation(T ans) {
+		if (metrics != null) {
+			Metrics done = metrics;
+			metrics = null;
+			done.finish();
+			metricsListener.operationDone(done);
+		}
+		return ans;
+	}
+
+	final void phaseStart(Metrics.Phase phase) {
+		if (metrics != null)
+			metrics.start(phase);
+	}
+
+	final void phaseEnd(Metrics.Phase phase, long pixels) {
+		if (metrics != null)
+			metrics.end(phase, pixels);
+	}
+
+	// The working image's pixels, imported in bulk on first use.
+	public final PixelBuffer workingBuffer() {
+		if (workingBuffer == null)
+			workingBuffer = PixelBuffer.fromImage(workingImage);
+
+		return workingBuffer;
 	}
 	
 	public BufferedImage greyscale() {
 		logger.log("Preparing for grayscale changing...");
+		beginOperation("greyscale");
 
-		int r = rgbWeights.redWeight;
-		int g = rgbWeights.greenWeight;
-		int b = rgbWeights.blueWeight;
+		PixelBuffer src = workingBuffer();
+		phaseStart(Metrics.Phase.GREYSCALE);
+		PixelBuffer grey = greyscale(src);
+		phaseEnd(Metrics.Phase.GREYSCALE, (long) src.width * src.height);
+		BufferedImage ans = grey.toImage(workingImageType);
 
-		BufferedImage ans = newEmptyInputSizedImage();
+		logger.log("Changing greyscale done!");
 
-		forEach((y, x) -> {
-			Color c = new Color(workingImage.getRGB(x, y));
-			int red = r * c.getRed();
-			int green = g * c.getGreen();
-			int blue = b * c.getBlue();
-			int greyHue = (red + green + blue) / (r + g + b);
-			Color color = new Color(greyHue, greyHue, greyHue);
-			ans.setRGB(x, y, color.getRGB());
-		});
+		return endOperation(ans);
+	}
 
-		logger.log("Changing greyscale done!");
+	public final PixelBuffer greyscale(PixelBuffer src) {
+		return map(src, PixelKernels.greyscale(rgbWeights));
+	}
 
-		return ans;
+	// The greyscale of a single ARGB pixel: the weighted average of its channels.
+	public static IntUnaryOperator greyscaleOperator(RGBWeights weights) {
+		int r = weights.redWeight;
+		int g = weights.greenWeight;
+		int b = weights.blueWeight;
+
+		return c -> {
+			int greyHue = PixelKernels.intensity(c, r, g, b);
+			return 0xFF000000 | (greyHue << 16) | (greyHue << 8) | greyHue;
+		};
 	}
 
 	public BufferedImage nearestNeighbor() {
 		logger.log("Preparing for nearest neighbor changing...");
+		beginOperation("nearest neighbor");
 
-		BufferedImage ans = newEmptyOutputSizedImage();
+		PixelBuffer src = workingBuffer();
+		phaseStart(Metrics.Phase.SCALING);
+		PixelBuffer scaled = nearestNeighbor(src, outWidth, outHeight);
+		phaseEnd(Metrics.Phase.SCALING, (long) outWidth * outHeight);
+		BufferedImage ans = scaled.toImage(workingImageType);
 
-		this.setForEachParameters(this.outWidth,this.outHeight);
-		forEach((y, x) -> {
+		logger.log("Rescaling with nearest neighbor done!");
 
-			int originalY = Math.round((y * this.inHeight)/ this.outHeight);
-			int originalX = Math.round((x * this.inWidth)/ this.outWidth);
+		return endOperation(ans);
+	}
 
-			int color = this.workingImage.getRGB(originalX,originalY);
-			ans.setRGB(x, y, color);
-		});
+	public final PixelBuffer nearestNeighbor(PixelBuffer src, int width, int height) {
+		return nearestNeighbor(src, 0, src.height, width, height, 0, height);
+	}
 
-		logger.log("Rescaling with nearest neighbor done!");
+	// The rows fromY to toY of the width x height scaling of an image srcHeight rows high, of which src only holds
+	// the rows from srcY on (see nearestSourceRow for the rows it needs).
+	public final PixelBuffer nearestNeighbor(PixelBuffer src, int srcY, int srcHeight, int width, int height,
+			int fromY, int toY) {
+		PixelBuffer ans = new PixelBuffer(width, toY - fromY);
+
+		pushForEachParameters();
+		setForEachParameters(width, toY - fromY);
+		forEachRowRange((from, to) -> {
+			for (int y = from; y < to; ++y) {
+				int originalY = nearestSourceRow(fromY + y, srcHeight, height);
+				int srcOffset = (originalY - srcY) * src.width;
+				int offset = y * width;
+
+				for (int x = 0; x < width; ++x) {
+					int originalX = (int) ((long) x * src.width / width);
+					ans.pixels[offset + x] = src.pixels[srcOffset + originalX];
+				}
+			}
+		});
+		popForEachParameters();
 
 		return ans;
 	}
 
+	// The source row the nearest neighbor scaling from srcHeight rows to height rows takes the row y from.
+	public static int nearestSourceRow(int y, int srcHeight, int height) {
+		return (int) ((long) y * srcHeight / height);
+	}
+
 }
@@ -0,0 +1,115 @@
+package edu.cg;
+
+// The rotations and reflections of an image (and of its mask). Each one maps the pixel (x, y) of the source to
+// the pixel (u, v) of the result: the axes are swapped first for the transforms that swap them (so u = y and
+// v = x), then u and/or v are mirrored.
+//
+// The transforms that swap the axes read the source in square tiles of TILE x TILE pixels, so the columns they
+// write to stay in the cache while a tile is copied, instead of every source row touching a new cache line of
+// the result per pixel. The others read and write whole rows at unit stride.
+public enum ImageTransform {
+	ROTATE_90(true, true, false), // clockwise
+	ROTATE_180(false, true, true),
+	ROTATE_270(true, false, true), // counterclockwise
+	TRANSPOSE(true, false, false),
+	FLIP_HORIZONTAL(false, true, false), // mirrors left and right
+	FLIP_VERTICAL(false, false, true); // mirrors top and bottom
+
+	public static final int TILE = 32;
+
+	public final boolean swapsAxes;
+	private final boolean mirrorU;
+	private final boolean mirrorV;
+
+	ImageTransform(boolean swapsAxes, boolean mirrorU, boolean mirrorV) {
+		this.swapsAxes = swapsAxes;
+		this.mirrorU = mirrorU;
+		this.mirrorV = mirrorV;
+	}
+
+	public PixelBuffer apply(PixelBuffer src) {
+		return apply(src.pixels, src.width, src.height, src.width);
+	}
+
+	// Transforms the width x height image whose row y starts at src[y * stride].
+	public PixelBuffer apply(int[] src, int width, int height, int stride) {
+		int dstWidth = swapsAxes ? height : width;
+		int dstHeight = swapsAxes ? width : height;
+		PixelBuffer ans = new PixelBuffer(dstWidth, dstHeight);
+
+		// the result index of the pixel (x, y) is base + x * xStep + y * yStep
+		int uBase = mirrorU ? dstWidth - 1 : 0;
+		int vBase = mirrorV ? dstHeight - 1 : 0;
+		int uStep = mirrorU ? -1 : 1;
+		int vStep = mirrorV ? -dstWidth : dstWidth;
+		int base = vBase * dstWidth + uBase;
+		int xStep = swapsAxes ? vStep : uStep;
+		int yStep = swapsAxes ? uStep : vStep;
+		int[] dst = ans.pixels;
+
+		if (!swapsAxes) {
+			for (int y = 0; y < height; ++y) {
+				int from = y * stride;
+				int to = base + y * yStep;
+				if (xStep == 1) {
+					System.arraycopy(src, from, dst, to, width);
+				} else {
+					for (int x = 0; x < width; ++x)
+						dst[to - x] = src[from + x];
+				}
+			}
+			return ans;
+		}
+
+		for (int tileY = 0; tileY < height; tileY += TILE) {
+			int endY = Math.min(tileY + TILE, height);
+			for (int tileX = 0; tileX < width; tileX += TILE) {
+				int endX = Math.min(tileX + TILE, width);
+				for (int y = tileY; y < endY; ++y) {
+					int from = y * stride;
+					int to = base + tileX * xStep + y * yStep;
+					for (int x = tileX; x < endX; ++x, to += xStep)
+						dst[to] = src[from + x];
+				}
+			}
+		}
+
+		return ans;
+	}
+
+	public boolean[][] apply(boolean[][] mask) {
+		int height = mask.length;
+		int width = mask[0].length;
+		int dstWidth = swapsAxes ? height : width;
+		int dstHeight = swapsAxes ? width : height;
+		boolean[][] ans = new boolean[dstHeight][dstWidth];
+
+		if (!swapsAxes) {
+			for (int y = 0; y < height; ++y) {
+				boolean[] dst = ans[mirrorV ? height - 1 - y : y];
+				if (!mirrorU) {
+					System.arraycopy(mask[y], 0, dst, 0, width);
+				} else {
+					for (int x = 0; x < width; ++x)
+						dst[width - 1 - x] = mask[y][x];
+				}
+			}
+			return ans;
+		}
+
+		// the pixel (x, y) goes to the row v(x) and the column u(y) of the result
+		for (int tileY = 0; tileY < height; tileY += TILE) {
+			int endY = Math.min(tileY + TILE, height);
+			for (int tileX = 0; tileX < width; tileX += TILE) {
+				int endX = Math.min(tileX + TILE, width);
+				for (int y = tileY; y < endY; ++y) {
+					int u = mirrorU ? height - 1 - y : y;
+					for (int x = tileX; x < endX; ++x)
+						ans[mirrorV ? width - 1 - x : x][u] = mask[y][x];
+				}
+			}
+		}
+
+		return ans;
+	}
+}
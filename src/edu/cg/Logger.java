@@ -1,9 +1,52 @@
 package edu.cg;
 
+import java.util.function.Supplier;
+
 public interface Logger {
+	// The levels of the messages, the least important first. log(s) logs an INFO message.
+	public enum Level {
+		DEBUG, INFO, WARNING, ERROR;
+	}
+
 	public void log(String s);
-	
+
 	public default void log(Object obj) {
 		log(obj == null ? "null" : obj.toString());
 	}
+
+	// Whether the messages of the level are logged at all. Unless a logger says otherwise, all but DEBUG are.
+	public default boolean isEnabled(Level level) {
+		return level.compareTo(Level.INFO) >= 0;
+	}
+
+	public default void log(Level level, String s) {
+		if (isEnabled(level))
+			log(s);
+	}
+
+	// The message is only built if its level is logged: hot loops log through this.
+	public default void log(Level level, Supplier<String> message) {
+		if (isEnabled(level))
+			log(level, message.get());
+	}
+
+	// A logger that prefixes every message, and logs the levels this one logs.
+	public static Logger prefixed(Logger logger, String prefix) {
+		return new Logger() {
+			@Override
+			public void log(String s) {
+				logger.log(prefix + s);
+			}
+
+			@Override
+			public boolean isEnabled(Level level) {
+				return logger.isEnabled(level);
+			}
+
+			@Override
+			public void log(Level level, String s) {
+				logger.log(level, prefix + s);
+			}
+		};
+	}
 }
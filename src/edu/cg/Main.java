@@ -6,9 +6,14 @@ import java.util.ArrayList;
 public class Main {
 	
 	/**
-	 * Launch the application.
+	 * Launch the application, or run a batch of images without it when arguments are given (see Batch).
 	 */
 	public static void main(String[] args) {
+		if (args.length > 0) {
+			Batch.main(args);
+			return;
+		}
+
 		MenuWindow mw = new MenuWindow();
 		mw.setVisible(true);
 	}
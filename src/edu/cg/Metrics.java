@@ -0,0 +1,292 @@
+package edu.cg;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// The time and memory an operation of an ImageProcessor (or of a SeamsCarver) spent in each of its phases, summed
+// over all the seams of a run, and the pixels each phase processed. A processor only measures its operations when
+// a listener is set (see ImageProcessor.setMetricsListener); without one, a phase costs it a null check.
+//
+// The times are wall clock times, and the time of a phase does not include the phases run inside it. The allocated
+// bytes are those of the thread the operation runs on (not of the for-each pool's threads), or -1 where the JVM
+// can not count them.
+public class Metrics {
+	public enum Phase {
+		GREYSCALE, // the greyscale filter, and the greyscale planes of the seam carvers not computed with their energy
+		HUE,
+		SCALING, // nearest neighbor
+		ENERGY, // the energy and forward energy of the seam carvers, filled or updated around a seam
+		COST, // the cost DP, filled or updated (and the corridor DPs of the pyramid mode, which find the seam too)
+		BACKTRACKING, // finding seams in the cost matrix
+		COMPACTION; // removing the seams from the planes (its pixels are the pixels removed), and packing the result
+	}
+
+	@FunctionalInterface
+	public interface Listener {
+		// Called on the processor's thread when an operation is done (not when it fails or is cancelled).
+		void operationDone(Metrics metrics);
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	public final String operation;
+	public final int width;
+	public final int height;
+	private final long[] calls = new long[PHASES.length];
+	private final long[] nanos = new long[PHASES.length];
+	private final long[] allocatedBytes = new long[PHASES.length];
+	private final long[] pixels = new long[PHASES.length];
+	private long seams;
+	private final long startNanos;
+	private final long startBytes;
+	private long totalNanos = -1;
+	private long totalAllocatedBytes;
+
+	// The phases running, the innermost last, and when the innermost one started or was last resumed.
+	private Phase[] running = new Phase[4];
+	private int depth;
+	private long markNanos;
+	private long markBytes;
+
+	// An operation on a width x height image, starting now.
+	public Metrics(String operation, int width, int height) {
+		this.operation = operation;
+		this.width = width;
+		this.height = height;
+		startNanos = System.nanoTime();
+		startBytes = allocated();
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return null;
+
+		com.sun.management.ThreadMXBean ans = (com.sun.management.ThreadMXBean) bean;
+		return (ans.isThreadAllocatedMemorySupported() && ans.isThreadAllocatedMemoryEnabled()) ? ans : null;
+	}
+
+	private static long allocated() {
+		return (THREADS == null) ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	// MARK: Recording
+	// Phases may run inside each other: the enclosing one is paused until the inner one ends.
+	void start(Phase phase) {
+		long now = System.nanoTime();
+		long bytes = allocated();
+		if (depth > 0)
+			charge(running[depth - 1], now, bytes);
+		if (depth == running.length)
+			running = Arrays.copyOf(running, 2 * depth);
+
+		running[depth++] = phase;
+		markNanos = now;
+		markBytes = bytes;
+	}
+
+	void end(Phase phase, long pixels) {
+		if (depth == 0 || running[depth - 1] != phase)
+			throw new IllegalStateException("The phase " + phase + " was not started last");
+
+		long now = System.nanoTime();
+		long bytes = allocated();
+		charge(phase, now, bytes);
+		calls[phase.ordinal()]++;
+		this.pixels[phase.ordinal()] += pixels;
+		--depth;
+		markNanos = now;
+		markBytes = bytes;
+	}
+
+	private void charge(Phase phase, long now, long bytes) {
+		nanos[phase.ordinal()] += now - markNanos;
+		allocatedBytes[phase.ordinal()] += bytes - markBytes;
+	}
+
+	void addSeams(int count) {
+		seams += count;
+	}
+
+	void finish() {
+		totalNanos = System.nanoTime() - startNanos;
+		totalAllocatedBytes = allocated() - startBytes;
+	}
+
+	// MARK: Results
+	public long calls(Phase phase) {
+		return calls[phase.ordinal()];
+	}
+
+	public long nanos(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	public long allocatedBytes(Phase phase) {
+		return (THREADS == null) ? -1 : allocatedBytes[phase.ordinal()];
+	}
+
+	public long pixels(Phase phase) {
+		return pixels[phase.ordinal()];
+	}
+
+	public long seams() {
+		return seams;
+	}
+
+	// The time of the whole operation, phases or not (-1 while it runs).
+	public long totalNanos() {
+		return totalNanos;
+	}
+
+	public long totalAllocatedBytes() {
+		return (THREADS == null) ? -1 : totalAllocatedBytes;
+	}
+
+	// One line: the totals, then the phases that ran.
+	@Override
+	public String toString() {
+		StringBuilder ans = new StringBuilder(String.format(Locale.ROOT, "%s %dx%d: %s", operation, width, height,
+				amounts(totalNanos, totalAllocatedBytes())));
+		if (seams > 0)
+			ans.append(", ").append(seams).append(" seams");
+
+		for (Phase phase : PHASES) {
+			if (calls(phase) > 0) {
+				ans.append("; ").append(phase.name().toLowerCase(Locale.ROOT)).append(' ')
+						.append(amounts(nanos(phase), allocatedBytes(phase))).append(", ").append(pixels(phase))
+						.append(" px");
+			}
+		}
+		return ans.toString();
+	}
+
+	private static String amounts(long nanos, long bytes) {
+		String time = String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+		return (bytes < 0) ? time : time + String.format(Locale.ROOT, ", %.1f MB", bytes / 1e6);
+	}
+
+	// MARK: Totals
+	public interface TotalsMXBean {
+		long getOperations();
+
+		long getSeams();
+
+		long getTotalMillis();
+
+		Map<String, Long> getPhaseMillis();
+
+		Map<String, Long> getPhaseAllocatedBytes();
+
+		Map<String, Long> getPhasePixels();
+
+		void reset();
+	}
+
+	// The sums of the metrics of all the operations it listens to, from any number of threads. Can be registered
+	// as an MXBean (see register), to be read from JConsole or any other JMX client.
+	public static class Totals implements Listener, TotalsMXBean {
+		private long operations;
+		private long seams;
+		private long totalNanos;
+		private final long[] nanos = new long[PHASES.length];
+		private final long[] allocatedBytes = new long[PHASES.length];
+		private final long[] pixels = new long[PHASES.length];
+
+		@Override
+		public synchronized void operationDone(Metrics metrics) {
+			++operations;
+			seams += metrics.seams;
+			totalNanos += metrics.totalNanos;
+			for (int i = 0; i < PHASES.length; ++i) {
+				nanos[i] += metrics.nanos[i];
+				allocatedBytes[i] += metrics.allocatedBytes[i];
+				pixels[i] += metrics.pixels[i];
+			}
+		}
+
+		// Registers these totals with the platform MBean server, as edu.cg:type=Metrics,name=<name>.
+		public ObjectName register(String name) {
+			try {
+				ObjectName ans = new ObjectName("edu.cg:type=Metrics,name=" + ObjectName.quote(name));
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, ans);
+				return ans;
+			} catch (JMException e) {
+				throw new RuntimeException("Can't register the metrics as " + name + ": " + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public synchronized long getOperations() {
+			return operations;
+		}
+
+		@Override
+		public synchronized long getSeams() {
+			return seams;
+		}
+
+		@Override
+		public synchronized long getTotalMillis() {
+			return totalNanos / 1000000;
+		}
+
+		@Override
+		public Map<String, Long> getPhaseMillis() {
+			return byPhase(i -> nanos[i] / 1000000);
+		}
+
+		@Override
+		public Map<String, Long> getPhaseAllocatedBytes() {
+			return byPhase(i -> (THREADS == null) ? -1 : allocatedBytes[i]);
+		}
+
+		@Override
+		public Map<String, Long> getPhasePixels() {
+			return byPhase(i -> pixels[i]);
+		}
+
+		private synchronized Map<String, Long> byPhase(ToLongFunction<Integer> value) {
+			Map<String, Long> ans = new LinkedHashMap<>();
+			for (Phase phase : PHASES)
+				ans.put(phase.name().toLowerCase(Locale.ROOT), value.applyAsLong(phase.ordinal()));
+			return ans;
+		}
+
+		@Override
+		public synchronized void reset() {
+			operations = 0;
+			seams = 0;
+			totalNanos = 0;
+			Arrays.fill(nanos, 0);
+			Arrays.fill(allocatedBytes, 0);
+			Arrays.fill(pixels, 0);
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder ans = new StringBuilder(String.format(Locale.ROOT, "%d operations in %.1f ms",
+					operations, totalNanos / 1e6));
+			if (seams > 0)
+				ans.append(", ").append(seams).append(" seams");
+
+			for (Phase phase : PHASES) {
+				int i = phase.ordinal();
+				if (pixels[i] > 0 || nanos[i] > 0) {
+					ans.append("; ").append(phase.name().toLowerCase(Locale.ROOT)).append(' ')
+							.append(amounts(nanos[i], (THREADS == null) ? -1 : allocatedBytes[i])).append(", ")
+							.append(pixels[i]).append(" px");
+				}
+			}
+			return ans.toString();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.function.UnaryOperator;
+
+// A chain of image operations, built stage by stage and then applied to any number of images:
+//
+//     new Pipeline(logger).changeHue(weights).greyscale(weights).nearestNeighbor(w, h).apply(img)
+//
+// Consecutive pointwise stages (the hue change, the greyscale or any other function of a single pixel) are
+// fused: their kernels (see PixelKernels, so the vector ones where they run) are chained chunk by chunk and applied
+// in one pass over the pixels, which is done in place on every buffer the pipeline owns (all of them but the
+// caller's own source). The other stages need the whole image (the resizes), so they are barriers between the
+// fused passes. Three filters in a row cost one pass and at most one new buffer, instead of a pass, a new buffer
+// and a new image each.
+//
+// The passes run on the for-each pool, if one is set (see FunctioalForEachLoops.setForEachPool).
+public class Pipeline extends FunctioalForEachLoops {
+	private static class Stage {
+		final String name;
+		final Metrics.Phase phase; // null for the stages not measured on their own
+		final PixelKernels.Kernel pointwise; // null for the barriers
+		final UnaryOperator<PixelBuffer> barrier;
+
+		Stage(String name, Metrics.Phase phase, PixelKernels.Kernel pointwise, UnaryOperator<PixelBuffer> barrier) {
+			this.name = name;
+			this.phase = phase;
+			this.pointwise = pointwise;
+			this.barrier = barrier;
+		}
+	}
+
+	public final Logger logger;
+	private final List<Stage> stages = new ArrayList<>();
+	private volatile Metrics.Listener metricsListener;
+
+	public Pipeline(Logger logger) {
+		super();
+
+		this.logger = logger;
+	}
+
+	// MARK: Pointwise stages
+	public Pipeline changeHue(RGBWeights weights) {
+		return pointwise("hue", Metrics.Phase.HUE, PixelKernels.hue(weights));
+	}
+
+	public Pipeline greyscale(RGBWeights weights) {
+		return pointwise("greyscale", Metrics.Phase.GREYSCALE, PixelKernels.greyscale(weights));
+	}
+
+	// A stage that maps every ARGB pixel on its own.
+	public Pipeline pointwise(String name, IntUnaryOperator op) {
+		return pointwise(name, null, PixelKernels.scalar(op));
+	}
+
+	// A stage that filters runs of pixels, like the kernels of PixelKernels (which it must be able to run in place).
+	public Pipeline pointwise(String name, Metrics.Phase phase, PixelKernels.Kernel kernel) {
+		stages.add(new Stage(name, phase, kernel, null));
+		return this;
+	}
+
+	// MARK: Barriers
+	public Pipeline nearestNeighbor(int width, int height) {
+		return then("nearest neighbor", Metrics.Phase.SCALING, src -> new ImageProcessor(logger, src.asImage(),
+				new RGBWeights(1, 1, 1), width, height).nearestNeighbor(src, width, height));
+	}
+
+	// Seam carving to width x height (see SeamsCarver.retarget). The mask, if any, must have the size the image
+	// has at this stage.
+	public Pipeline seamCarve(int width, int height, RGBWeights weights, boolean[][] mask) {
+		return then("seam carving", src -> {
+			boolean[][] stageMask = new boolean[src.height][];
+			for (int y = 0; y < src.height; ++y)
+				stageMask[y] = (mask == null) ? new boolean[src.width] : mask[y].clone();
+
+			return PixelBuffer.fromImage(SeamsCarver.retarget(logger, src.asImage(), width, height, weights, stageMask));
+		});
+	}
+
+	// A stage that needs the whole image. It must not change its input, but may return it as it is.
+	public Pipeline then(String name, UnaryOperator<PixelBuffer> stage) {
+		return then(name, null, stage);
+	}
+
+	private Pipeline then(String name, Metrics.Phase phase, UnaryOperator<PixelBuffer> stage) {
+		stages.add(new Stage(name, phase, null, stage));
+		return this;
+	}
+
+	// MARK: Metrics
+	// Measures every application of the pipeline from now on as an operation of its own (see Metrics), and hands
+	// its metrics to the listener. A fused pass counts in the phase of its first stage, and the stages without a
+	// phase (seam carving, the custom stages) only in the operation's total. Null stops the measuring.
+	public void setMetricsListener(Metrics.Listener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	// MARK: Applying
+	public BufferedImage apply(BufferedImage img) {
+		return apply(PixelBuffer.fromImage(img), true).toImage(img.getType());
+	}
+
+	// The result is always a new buffer: src itself is never changed.
+	public PixelBuffer apply(PixelBuffer src) {
+		return apply(src, false);
+	}
+
+	private PixelBuffer apply(PixelBuffer src, boolean ownsSrc) {
+		Metrics.Listener listener = metricsListener;
+		Metrics metrics = (listener == null) ? null : new Metrics(names(), src.width, src.height);
+		PixelBuffer buf = src;
+
+		for (int i = 0; i < stages.size();) {
+			Stage stage = stages.get(i++);
+			long pixels = (long) buf.width * buf.height;
+			if (metrics != null && stage.phase != null)
+				metrics.start(stage.phase);
+
+			if (stage.pointwise == null) {
+				buf = stage.barrier.apply(buf);
+			} else {
+				PixelKernels.Kernel kernel = stage.pointwise;
+				String names = stage.name;
+				for (; i < stages.size() && stages.get(i).pointwise != null; ++i) {
+					kernel = kernel.andThen(stages.get(i).pointwise);
+					names += " + " + stages.get(i).name;
+				}
+
+				logger.log("Applying " + names + " in one pass...");
+				boolean owned = ownsSrc || buf != src;
+				buf = map(buf, kernel, owned ? buf : new PixelBuffer(buf.width, buf.height));
+			}
+
+			if (metrics != null && stage.phase != null)
+				metrics.end(stage.phase, pixels);
+		}
+
+		if (metrics != null) {
+			metrics.finish();
+			listener.operationDone(metrics);
+		}
+		return (ownsSrc || buf != src) ? buf : src.copy();
+	}
+
+	private String names() {
+		StringBuilder ans = new StringBuilder();
+		for (Stage stage : stages)
+			ans.append((ans.length() == 0) ? "" : " + ").append(stage.name);
+		return ans.toString();
+	}
+}
@@ -0,0 +1,166 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+// A packed ARGB image stored row-major in a single int array (pixel (x, y) lives at y * width + x).
+// Images are converted in bulk on import and export, so the processing code never goes through
+// BufferedImage.getRGB/setRGB one pixel at a time.
+public class PixelBuffer {
+	public final int width;
+	public final int height;
+	public final int[] pixels;
+
+	public PixelBuffer(int width, int height) {
+		this(width, height, new int[width * height]);
+	}
+
+	public PixelBuffer(int width, int height, int[] pixels) {
+		if (pixels.length < width * height)
+			throw new IllegalArgumentException("The pixels array is too small for a " + width + "x" + height + " buffer");
+
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+	}
+
+	// Reads all the pixels of the image as (non premultiplied) ARGB values, exactly as getRGB would return them.
+	public static PixelBuffer fromImage(BufferedImage img) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		PixelBuffer ans = new PixelBuffer(width, height);
+
+		switch (img.getType()) {
+		case BufferedImage.TYPE_INT_ARGB:
+			img.getRaster().getDataElements(0, 0, width, height, ans.pixels);
+			break;
+
+		case BufferedImage.TYPE_INT_RGB:
+			img.getRaster().getDataElements(0, 0, width, height, ans.pixels);
+			for (int i = 0; i < width * height; ++i)
+				ans.pixels[i] |= 0xFF000000;
+			break;
+
+		// The byte interleaved rasters hand their samples out in band order: red, green, blue (and alpha).
+		case BufferedImage.TYPE_3BYTE_BGR:
+			byte[] rgbRow = new byte[3 * width];
+			for (int y = 0; y < height; ++y) {
+				img.getRaster().getDataElements(0, y, width, 1, rgbRow);
+				int offset = y * width;
+				for (int x = 0, i = 0; x < width; ++x, i += 3)
+					ans.pixels[offset + x] = 0xFF000000 | (rgbRow[i] & 0xFF) << 16 | (rgbRow[i + 1] & 0xFF) << 8
+							| (rgbRow[i + 2] & 0xFF);
+			}
+			break;
+
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			byte[] rgbaRow = new byte[4 * width];
+			for (int y = 0; y < height; ++y) {
+				img.getRaster().getDataElements(0, y, width, 1, rgbaRow);
+				int offset = y * width;
+				for (int x = 0, i = 0; x < width; ++x, i += 4)
+					ans.pixels[offset + x] = (rgbaRow[i + 3] & 0xFF) << 24 | (rgbaRow[i] & 0xFF) << 16
+							| (rgbaRow[i + 1] & 0xFF) << 8 | (rgbaRow[i + 2] & 0xFF);
+			}
+			break;
+
+		default:
+			img.getRGB(0, 0, width, height, ans.pixels, 0, width);
+			break;
+		}
+
+		return ans;
+	}
+
+	// Writes the buffer into a new image of the given type, exactly as setRGB would store it.
+	public BufferedImage toImage(int imageType) {
+		BufferedImage ans = new BufferedImage(width, height, imageType);
+		WritableRaster raster = ans.getRaster();
+
+		switch (imageType) {
+		case BufferedImage.TYPE_INT_ARGB:
+			raster.setDataElements(0, 0, width, height, pixels);
+			break;
+
+		case BufferedImage.TYPE_INT_RGB:
+			int[] row = new int[width];
+			for (int y = 0; y < height; ++y) {
+				int offset = y * width;
+				for (int x = 0; x < width; ++x)
+					row[x] = pixels[offset + x] & 0x00FFFFFF;
+				raster.setDataElements(0, y, width, 1, row);
+			}
+			break;
+
+		case BufferedImage.TYPE_3BYTE_BGR:
+			byte[] rgbRow = new byte[3 * width];
+			for (int y = 0; y < height; ++y) {
+				int offset = y * width;
+				for (int x = 0, i = 0; x < width; ++x, i += 3) {
+					int argb = pixels[offset + x];
+					rgbRow[i] = (byte) (argb >> 16);
+					rgbRow[i + 1] = (byte) (argb >> 8);
+					rgbRow[i + 2] = (byte) argb;
+				}
+				raster.setDataElements(0, y, width, 1, rgbRow);
+			}
+			break;
+
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			byte[] rgbaRow = new byte[4 * width];
+			for (int y = 0; y < height; ++y) {
+				int offset = y * width;
+				for (int x = 0, i = 0; x < width; ++x, i += 4) {
+					int argb = pixels[offset + x];
+					rgbaRow[i] = (byte) (argb >> 16);
+					rgbaRow[i + 1] = (byte) (argb >> 8);
+					rgbaRow[i + 2] = (byte) argb;
+					rgbaRow[i + 3] = (byte) (argb >> 24);
+				}
+				raster.setDataElements(0, y, width, 1, rgbaRow);
+			}
+			break;
+
+		default:
+			ans.setRGB(0, 0, width, height, pixels, 0, width);
+			break;
+		}
+
+		return ans;
+	}
+
+	// A TYPE_INT_ARGB image backed by the buffer's own pixels, without copying them: changing either one changes
+	// the other.
+	public BufferedImage asImage() {
+		DirectColorModel cm = (DirectColorModel) ColorModel.getRGBdefault();
+		WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, width * height), width, height,
+				width, cm.getMasks(), null);
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+	public final int get(int x, int y) {
+		return pixels[y * width + x];
+	}
+
+	public final void set(int x, int y, int argb) {
+		pixels[y * width + x] = argb;
+	}
+
+	public PixelBuffer copy() {
+		int[] cpy = new int[width * height];
+		System.arraycopy(pixels, 0, cpy, 0, width * height);
+		return new PixelBuffer(width, height, cpy);
+	}
+
+	public PixelBuffer rotateClockwise() {
+		return ImageTransform.ROTATE_90.apply(this);
+	}
+
+	public PixelBuffer rotateCounterclockwise() {
+		return ImageTransform.ROTATE_270.apply(this);
+	}
+}
@@ -0,0 +1,203 @@
+package edu.cg;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.IntUnaryOperator;
+
+// The greyscale and hue filters over runs of packed ARGB pixels, as map applies them. The Vector API versions of
+// the vector module (VECTOR_PROVIDER) are used when that module is on the class path, the JVM runs with
+// --add-modules jdk.incubator.vector and they pass a self check against the scalar operators of ImageProcessor;
+// otherwise the scalar operators are looped over. -Dedu.cg.vector=false keeps the scalar ones anyway.
+//
+// A provider returns null for weights it can not compute bit for bit like the scalar operators, and those weights
+// get the scalar kernel, so the pixels never depend on which kernels run.
+public final class PixelKernels {
+	@FunctionalInterface
+	public interface Kernel {
+		// Writes the filtered pixels of src[from, to) to dst[from, to) (which may be src itself).
+		void apply(int[] src, int[] dst, int from, int to);
+
+		// This kernel, then next on its output, a chunk of FUSED_CHUNK pixels at a time: next reads the pixels
+		// while they are still in the cache, and each kernel still runs over whole runs (vectors, for the vector
+		// ones).
+		default Kernel andThen(Kernel next) {
+			return (src, dst, from, to) -> {
+				for (int i = from; i < to; i += FUSED_CHUNK) {
+					int end = Math.min(to, i + FUSED_CHUNK);
+					apply(src, dst, i, end);
+					next.apply(dst, dst, i, end);
+				}
+			};
+		}
+	}
+
+	public interface Provider {
+		// Null where the kernel could differ from ImageProcessor.greyscaleOperator(weights).
+		Kernel greyscale(RGBWeights weights);
+
+		// Null where the kernel could differ from ImageProcessor.hueOperator(weights).
+		Kernel hue(RGBWeights weights);
+
+		String description();
+	}
+
+	public static final String VECTOR_PROVIDER = "edu.cg.vector.VectorKernels";
+	// The pixels (16 KB of them) a fused kernel runs through each of its kernels at a time (see Kernel.andThen).
+	public static final int FUSED_CHUNK = 4096;
+
+	// The weights of the self check (and of the tests of the kernels): the menu's extremes, single channels and
+	// uneven mixes.
+	private static final RGBWeights[] PROBE_WEIGHTS = { new RGBWeights(1, 1, 1), new RGBWeights(100, 100, 100),
+			new RGBWeights(1, 0, 0), new RGBWeights(0, 1, 0), new RGBWeights(0, 0, 100), new RGBWeights(37, 59, 11),
+			new RGBWeights(100, 3, 0), new RGBWeights(99, 98, 97), new RGBWeights(21845, 21845, 21845) };
+
+	private static final Provider PROVIDER;
+	private static final String DESCRIPTION;
+
+	static {
+		Provider provider = null;
+		String description;
+		if (!Boolean.parseBoolean(System.getProperty("edu.cg.vector", "true"))) {
+			description = "scalar (disabled by edu.cg.vector)";
+		} else {
+			try {
+				provider = (Provider) Class.forName(VECTOR_PROVIDER).getDeclaredConstructor().newInstance();
+				String failure = selfCheck(provider);
+				description = (failure == null) ? provider.description()
+						: "scalar (" + provider.description() + " failed its self check: " + failure + ")";
+				if (failure != null)
+					provider = null;
+			} catch (ClassNotFoundException e) {
+				description = "scalar (the vector module is not on the class path)";
+			} catch (LinkageError e) {
+				description = "scalar (jdk.incubator.vector is not available: " + e + ")";
+			} catch (InvocationTargetException e) {
+				description = "scalar (" + e.getCause().getMessage() + ")";
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				description = "scalar (" + e + ")";
+			}
+		}
+		PROVIDER = provider;
+		DESCRIPTION = description;
+	}
+
+	private PixelKernels() {
+	}
+
+	// Which kernels run, and why not the vector ones when they don't.
+	public static String description() {
+		return DESCRIPTION;
+	}
+
+	// Whether the vector kernels run (for the weights they take).
+	public static boolean isVectorized() {
+		return PROVIDER != null;
+	}
+
+	public static Kernel greyscale(RGBWeights weights) {
+		Kernel ans = (PROVIDER == null) ? null : PROVIDER.greyscale(weights);
+		return (ans != null) ? ans : scalar(ImageProcessor.greyscaleOperator(weights));
+	}
+
+	public static Kernel hue(RGBWeights weights) {
+		Kernel ans = (PROVIDER == null) ? null : PROVIDER.hue(weights);
+		return (ans != null) ? ans : scalar(ImageProcessor.hueOperator(weights));
+	}
+
+	public static Kernel scalar(IntUnaryOperator op) {
+		return (src, dst, from, to) -> {
+			for (int i = from; i < to; ++i)
+				dst[i] = op.applyAsInt(src[i]);
+		};
+	}
+
+	// MARK: Greyscale intensities
+	// The greyscale intensity of the ARGB pixel c: the weighted average of its channels, rounded down. Every
+	// greyscale of the application (the filter, its kernels and the planes of SeamsCarver) is this value.
+	public static int intensity(int c, int r, int g, int b) {
+		return (r * ((c >> 16) & 0xFF) + g * ((c >> 8) & 0xFF) + b * (c & 0xFF)) / (r + g + b);
+	}
+
+	// The intensities of src[from, to) to dst[offset, offset + to - from). The division by the sum of the weights
+	// is a multiplication by its rounded up reciprocal, which gives the same quotient for every weighted sum of
+	// channels while 255 * amount * amount < 2^32 (any sum the menu's weights can make).
+	public static void intensities(RGBWeights weights, int[] src, int from, int to, byte[] dst, int offset) {
+		int r = weights.redWeight;
+		int g = weights.greenWeight;
+		int b = weights.blueWeight;
+		int amount = r + g + b;
+		if (amount <= 0 || amount >= 4096 || r < 0 || g < 0 || b < 0) {
+			for (int i = from; i < to; ++i)
+				dst[offset + i - from] = (byte) intensity(src[i], r, g, b);
+			return;
+		}
+
+		long reciprocal = (1L << 32) / amount + 1;
+		for (int i = from; i < to; ++i) {
+			int c = src[i];
+			long sum = r * ((c >> 16) & 0xFF) + g * ((c >> 8) & 0xFF) + b * (c & 0xFF);
+			dst[offset + i - from] = (byte) ((sum * reciprocal) >>> 32);
+		}
+	}
+
+	// MARK: Self check
+	// Compares the provider's kernels with the scalar operators on every value of every channel (alone and in all
+	// three), on random pixels (alpha included), and on a run that starts and ends off the vector boundaries.
+	// Returns what differed first, or null.
+	private static String selfCheck(Provider provider) {
+		int[] src = probes(4 * 256 + 1021, 0x5EED);
+		for (RGBWeights weights : PROBE_WEIGHTS) {
+			String failure = compare("greyscale", weights, provider.greyscale(weights),
+					ImageProcessor.greyscaleOperator(weights), src);
+			if (failure == null)
+				failure = compare("hue", weights, provider.hue(weights), ImageProcessor.hueOperator(weights), src);
+			if (failure != null)
+				return failure;
+		}
+		return null;
+	}
+
+	// A copy of the weights the kernels are checked with.
+	public static RGBWeights[] probeWeights() {
+		return PROBE_WEIGHTS.clone();
+	}
+
+	// The pixels the kernels are checked on: every value of every channel (alone and in all three), then random
+	// pixels (alpha included) from the seed up to length, which is at least 1024.
+	public static int[] probes(int length, long seed) {
+		if (length < 4 * 256)
+			throw new IllegalArgumentException("The probes need at least " + (4 * 256) + " pixels");
+
+		int[] ans = new int[length];
+		for (int v = 0; v < 256; ++v) {
+			ans[v] = v << 16;
+			ans[256 + v] = v << 8;
+			ans[512 + v] = v;
+			ans[768 + v] = 0xFF000000 | (v << 16) | (v << 8) | v;
+		}
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int i = 4 * 256; i < ans.length; ++i)
+			ans[i] = random.nextInt();
+		return ans;
+	}
+
+	private static String compare(String filter, RGBWeights weights, Kernel kernel, IntUnaryOperator op, int[] src) {
+		if (kernel == null)
+			return null; // the scalar kernel runs for these weights
+
+		int from = 3;
+		int to = src.length - 5;
+		int[] dst = new int[src.length];
+		Arrays.fill(dst, 0x12345678);
+		kernel.apply(src, dst, from, to);
+		for (int i = 0; i < src.length; ++i) {
+			int expected = (i < from || i >= to) ? 0x12345678 : op.applyAsInt(src[i]);
+			if (dst[i] != expected) {
+				return String.format("%s with weights %s gave %08x for %08x at %d, not %08x", filter, weights, dst[i],
+						src[i], i, expected);
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,150 @@
+package edu.cg;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import edu.cg.SeamsCarver.Orientation;
+
+// A bounded in memory cache of the planes derived from an image (its rotated copy, its greyscale intensities and
+// their energy), so the operations that run on the same image and weights one after the other compute them
+// once. Images are compared by identity: the owner of the image decides which object stands for its content and
+// invalidates it when that content changes. The least recently used planes are dropped once the cached planes
+// take more than maxBytes.
+//
+// The cached arrays are shared: whoever gets one must copy it before changing it.
+public class PlaneCache {
+	public enum Plane {
+		ROTATED, // the ImageTransform.ROTATE_90 of the image, a PixelBuffer (does not depend on the weights)
+		GREYSCALE, // the greyscale intensities of the carving grid, a byte[]
+		ENERGY // the energy of every cell of the carving grid, a short[]
+	}
+
+	private static final class Key {
+		final Object image;
+		final RGBWeights weights;
+		final Plane plane;
+		final Orientation orientation;
+
+		Key(Object image, RGBWeights weights, Plane plane, Orientation orientation) {
+			this.image = image;
+			this.weights = weights;
+			this.plane = plane;
+			this.orientation = orientation;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+
+			Key other = (Key) o;
+			return image == other.image && plane == other.plane && orientation == other.orientation
+					&& (weights == null ? other.weights == null : weights.equals(other.weights));
+		}
+
+		@Override
+		public int hashCode() {
+			int ans = System.identityHashCode(image);
+			ans = 31 * ans + (weights == null ? 0 : weights.hashCode());
+			ans = 31 * ans + plane.hashCode();
+			return 31 * ans + orientation.hashCode();
+		}
+	}
+
+	private long maxBytes;
+	// least recently used first
+	private final LinkedHashMap<Key, Object> planes = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private long hits;
+	private long misses;
+
+	public PlaneCache(long maxBytes) {
+		setMaxBytes(maxBytes);
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("The cache size can't be negative");
+
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	// The plane of the image, computed by compute (outside the lock) when it is not cached. Planes larger than the
+	// whole budget are returned without being cached.
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object image, RGBWeights weights, Plane plane, Orientation orientation, Supplier<T> compute) {
+		Key key = new Key(image, (plane == Plane.ROTATED) ? null : weights, plane, orientation);
+		synchronized (this) {
+			Object ans = planes.get(key);
+			if (ans != null) {
+				++hits;
+				return (T) ans;
+			}
+			++misses;
+		}
+
+		T ans = compute.get();
+		long size = sizeOf(ans);
+		synchronized (this) {
+			if (size <= maxBytes) {
+				Object old = planes.put(key, ans);
+				bytes += size - ((old != null) ? sizeOf(old) : 0);
+				evict();
+			}
+		}
+		return ans;
+	}
+
+	// Drops every plane of the image.
+	public synchronized void invalidate(Object image) {
+		Iterator<Map.Entry<Key, Object>> it = planes.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Object> entry = it.next();
+			if (entry.getKey().image == image) {
+				bytes -= sizeOf(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		planes.clear();
+		bytes = 0;
+	}
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+	public synchronized long sizeInBytes() {
+		return bytes;
+	}
+
+	private void evict() {
+		Iterator<Object> it = planes.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= sizeOf(it.next());
+			it.remove();
+		}
+	}
+
+	private static long sizeOf(Object plane) {
+		if (plane instanceof PixelBuffer)
+			return 4L * ((PixelBuffer) plane).pixels.length;
+		if (plane instanceof int[])
+			return 4L * ((int[]) plane).length;
+		if (plane instanceof short[])
+			return 2L * ((short[]) plane).length;
+		if (plane instanceof byte[])
+			return ((byte[]) plane).length;
+
+		throw new IllegalArgumentException("Not a plane: " + plane.getClass().getName());
+	}
+}
@@ -14,4 +14,23 @@ public class RGBWeights {
 		weightsAmount = redWeight + greenWeight + blueWeight;
 		maxWeight = Math.max(redWeight, Math.max(greenWeight, blueWeight));
 	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof RGBWeights))
+			return false;
+
+		RGBWeights other = (RGBWeights) o;
+		return redWeight == other.redWeight && greenWeight == other.greenWeight && blueWeight == other.blueWeight;
+	}
+
+	@Override
+	public int hashCode() {
+		return (31 * redWeight + greenWeight) * 31 + blueWeight;
+	}
+
+	@Override
+	public String toString() {
+		return "(" + redWeight + ", " + greenWeight + ", " + blueWeight + ")";
+	}
 }
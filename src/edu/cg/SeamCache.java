@@ -0,0 +1,338 @@
+package edu.cg;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cg.SeamsCarver.Orientation;
+
+// A cache of seam order indices and energy maps kept in a directory, so a carving run is paid for once per
+// image and then shared by every later request (and every process) that uses the same directory.
+//
+// An entry is keyed by a SHA-256 hash of everything its content depends on: the pixels, the RGB weights, the
+// mask, the orientation and the carving mode. The number of seams is not part of the key, since the first k
+// seams of a run are the seams of a run of k seams: an entry answers every request for as many seams as it
+// holds or fewer, and a request for more seams replaces it.
+//
+// An entry is one file: a header of six ints (magic, version, orientation, width, height, seams), then the rank
+// of every cell of the carving grid (a char per cell while the seams fit in one, an int otherwise), then the
+// energy of every cell as a short. The files are read back through a memory mapping. The least recently used
+// entries are evicted once the directory grows past its budget; the last modified time of a file is its last
+// use, so the order survives restarts.
+public class SeamCache {
+	private static final int MAGIC = 0x5345414D; // "SEAM"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 6 * 4;
+	private static final String SUFFIX = ".seams";
+
+	// The budget of a cache opened with no other (by Batch --seam-cache or -Dedu.cg.seamCache, for the menu).
+	public static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+	public final Path directory;
+	public final long maxBytes;
+
+	// file name -> size in bytes, least recently used first
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public SeamCache(Path directory, long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("The cache size must be positive");
+
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		List<Path> files = new ArrayList<>();
+		try {
+			Files.createDirectories(directory);
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+				for (Path file : stream)
+					files.add(file);
+			}
+			files.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+			for (Path file : files) {
+				long size = Files.size(file);
+				entries.put(file.getFileName().toString(), size);
+				bytes += size;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can't open the seam cache at " + directory, e);
+		}
+
+		evict(null);
+	}
+
+	private static class Entry {
+		final SeamOrderIndex index;
+		final short[] energy;
+
+		Entry(SeamOrderIndex index, short[] energy) {
+			this.index = index;
+			this.energy = energy;
+		}
+	}
+
+	// MARK: Lookups
+	// The seam order index of the carver's image, covering at least the seams the carver was asked to remove.
+	public SeamOrderIndex seamOrderIndex(SeamsCarver carver) {
+		return entry(carver).index;
+	}
+
+	// The energy of every cell of the carver's grid before any seam is removed (see SeamsCarver.energyMap).
+	public short[] energyMap(SeamsCarver carver) {
+		return entry(carver).energy;
+	}
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	public synchronized long sizeInBytes() {
+		return bytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	// A miss builds the index outside the lock, so concurrent requests for other images are not held up (two
+	// concurrent misses on the same image both build it, and the last one written wins).
+	private Entry entry(SeamsCarver carver) {
+		String name = key(carver) + SUFFIX;
+		Path file = directory.resolve(name);
+		Entry ans = read(file, carver);
+
+		if (ans != null) {
+			synchronized (this) {
+				++hits;
+				if (entries.get(name) == null)
+					track(name, size(file)); // written by another process
+			}
+			try {
+				Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			} catch (IOException e) {
+				// the entry was evicted in the meantime; the copy we read is still good
+			}
+			return ans;
+		}
+
+		synchronized (this) {
+			++misses;
+		}
+		ans = new Entry(carver.buildSeamOrderIndex(), carver.energyMap());
+		long size = write(file, ans);
+		synchronized (this) {
+			track(name, size);
+			evict(name);
+		}
+		return ans;
+	}
+
+	// MARK: Keys
+	static String key(SeamsCarver carver) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 is not available", e);
+		}
+
+		PixelBuffer src = carver.workingBuffer();
+		RGBWeights weights = carver.rgbWeights;
+		md.update((carver.orientation() + ";" + carver.carvingModeKey()).getBytes(StandardCharsets.UTF_8));
+		md.update(ByteBuffer.allocate(5 * 4).putInt(weights.redWeight).putInt(weights.greenWeight)
+				.putInt(weights.blueWeight).putInt(src.width).putInt(src.height).array());
+
+		// the pixels a row at a time, so hashing a large image does not need a second copy of it
+		ByteBuffer row = ByteBuffer.allocate(4 * src.width);
+		for (int y = 0; y < src.height; ++y) {
+			row.clear();
+			row.asIntBuffer().put(src.pixels, y * src.width, src.width);
+			md.update(row.array());
+		}
+
+		boolean[][] mask = carver.imageMask;
+		byte[] maskRow = new byte[(src.width + 7) / 8];
+		for (int y = 0; y < src.height; ++y) {
+			Arrays.fill(maskRow, (byte) 0);
+			for (int x = 0; x < src.width; ++x)
+				if (mask != null && mask[y][x])
+					maskRow[x >> 3] |= 1 << (x & 7);
+			md.update(maskRow);
+		}
+
+		StringBuilder ans = new StringBuilder();
+		for (byte b : md.digest())
+			ans.append(String.format("%02x", b));
+		return ans.toString();
+	}
+
+	// MARK: Entry files
+	// Returns null when there is no usable entry: no file, a damaged one, or one holding too few seams.
+	private static Entry read(Path file, SeamsCarver carver) {
+		if (!Files.exists(file))
+			return null;
+
+		PixelBuffer src = carver.workingBuffer();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < HEADER_BYTES)
+				return null;
+
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (buf.getInt() != MAGIC | buf.getInt() != VERSION)
+				return null;
+
+			int orientation = buf.getInt();
+			int width = buf.getInt();
+			int height = buf.getInt();
+			int seams = buf.getInt();
+			int cells = width * height;
+			if (orientation != carver.orientation().ordinal() | width != src.width | height != src.height
+					| seams < carver.numOfSeams() | length != entryBytes(cells, seams))
+				return null;
+
+			int[] ranks = new int[cells];
+			if (rankBytes(seams) == 2) {
+				char[] packed = new char[cells];
+				buf.asCharBuffer().get(packed);
+				for (int i = 0; i < cells; ++i)
+					ranks[i] = packed[i];
+			} else {
+				buf.asIntBuffer().get(ranks);
+			}
+			buf.position(buf.position() + cells * rankBytes(seams));
+
+			short[] energy = new short[cells];
+			buf.asShortBuffer().get(energy);
+
+			return new Entry(new SeamOrderIndex(Orientation.values()[orientation], width, height, seams, ranks), energy);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// Writes a temporary file and moves it into place, so readers never see half an entry.
+	private long write(Path file, Entry entry) {
+		SeamOrderIndex index = entry.index;
+		int cells = index.width * index.height;
+		long length = entryBytes(cells, index.seams);
+		Path tmp = null;
+
+		try {
+			tmp = Files.createTempFile(directory, "entry", ".tmp");
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				header.putInt(MAGIC).putInt(VERSION).putInt(index.orientation.ordinal()).putInt(index.width)
+						.putInt(index.height).putInt(index.seams).flip();
+				writeFully(channel, header);
+
+				ByteBuffer ranks = ByteBuffer.allocate(cells * rankBytes(index.seams));
+				if (rankBytes(index.seams) == 2) {
+					for (int i = 0; i < cells; ++i)
+						ranks.putChar((char) index.ranks[i]);
+				} else {
+					ranks.asIntBuffer().put(index.ranks, 0, cells);
+				}
+				ranks.rewind();
+				writeFully(channel, ranks);
+
+				ByteBuffer energy = ByteBuffer.allocate(2 * cells);
+				energy.asShortBuffer().put(entry.energy, 0, cells);
+				writeFully(channel, energy);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			try {
+				if (tmp != null)
+					Files.deleteIfExists(tmp);
+			} catch (IOException ignored) {
+			}
+			throw new UncheckedIOException("Can't write the seam cache entry " + file, e);
+		}
+
+		return length;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining())
+			channel.write(buf);
+	}
+
+	private static int rankBytes(int seams) {
+		return (seams <= Character.MAX_VALUE) ? 2 : 4;
+	}
+
+	private static long entryBytes(int cells, int seams) {
+		return HEADER_BYTES + (long) cells * (rankBytes(seams) + 2);
+	}
+
+	// MARK: Eviction
+	private void track(String name, long size) {
+		Long old = entries.put(name, size);
+		bytes += size - ((old != null) ? old : 0);
+	}
+
+	// Drops the least recently used entries until the cache fits its budget, never the one just written.
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			if (eldest.getKey().equals(keep))
+				continue;
+
+			try {
+				Files.deleteIfExists(directory.resolve(eldest.getKey()));
+			} catch (IOException e) {
+				continue; // still in use (mapped files can't be deleted on some systems); try again next time
+			}
+			bytes -= eldest.getValue();
+			++evictions;
+			it.remove();
+		}
+	}
+
+	private static long size(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private static FileTime lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+}
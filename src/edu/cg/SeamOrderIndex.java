@@ -0,0 +1,82 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.io.Serializable;
+
+import edu.cg.SeamsCarver.Orientation;
+
+// The order in which a seam carving run removes the pixels of an image, built once by
+// SeamsCarver.buildSeamOrderIndex. The first k seams of a run are exactly the seams a run of k seams removes, so
+// resizing the image (or its mask) to any size the run went through is a single pass over its pixels that keeps
+// the ones whose rank is at least k, with no energy or cost computations at all.
+public class SeamOrderIndex implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public final Orientation orientation;
+	public final int width;
+	public final int height;
+	public final int seams;
+
+	// The index of the seam that removes each cell of the carving grid (see SeamsCarver), or seams for the cells
+	// no seam removes. Every row of the grid has exactly one cell of each rank below seams.
+	final int[] ranks;
+
+	SeamOrderIndex(Orientation orientation, int width, int height, int seams, int[] ranks) {
+		this.orientation = orientation;
+		this.width = width;
+		this.height = height;
+		this.seams = seams;
+		this.ranks = ranks;
+	}
+
+	// The width (for vertical seams) or the height (for horizontal seams) the index resizes.
+	public int size() {
+		return (orientation == Orientation.VERTICAL) ? width : height;
+	}
+
+	public int minSize() {
+		return size() - seams;
+	}
+
+	public BufferedImage resize(BufferedImage img, int outSize) {
+		return resize(PixelBuffer.fromImage(img), outSize).toImage(img.getType());
+	}
+
+	public PixelBuffer resize(PixelBuffer src, int outSize) {
+		int k = seamsTo(src.width, src.height, outSize);
+		PixelBuffer grid = (orientation == Orientation.VERTICAL) ? src : ImageTransform.ROTATE_90.apply(src);
+		PixelBuffer ans = new PixelBuffer(grid.width - k, grid.height);
+
+		int j = 0;
+		for (int i = 0; i < grid.width * grid.height; ++i)
+			if (ranks[i] >= k)
+				ans.pixels[j++] = grid.pixels[i];
+
+		return (orientation == Orientation.VERTICAL) ? ans : ImageTransform.ROTATE_270.apply(ans);
+	}
+
+	public boolean[][] resize(boolean[][] mask, int outSize) {
+		int k = seamsTo(mask[0].length, mask.length, outSize);
+		boolean[][] grid = (orientation == Orientation.VERTICAL) ? mask : ImageTransform.ROTATE_90.apply(mask);
+		boolean[][] ans = new boolean[grid.length][grid[0].length - k];
+
+		for (int y = 0; y < grid.length; ++y) {
+			int offset = y * grid[0].length;
+			for (int x = 0, j = 0; x < grid[0].length; ++x)
+				if (ranks[offset + x] >= k)
+					ans[y][j++] = grid[y][x];
+		}
+
+		return (orientation == Orientation.VERTICAL) ? ans : ImageTransform.ROTATE_270.apply(ans);
+	}
+
+	private int seamsTo(int imageWidth, int imageHeight, int outSize) {
+		if (imageWidth != width | imageHeight != height)
+			throw new IllegalArgumentException("The seam order index was built for a " + width + "x" + height + " image");
+
+		if (outSize < minSize() | outSize > size())
+			throw new IllegalArgumentException("The seam order index only covers sizes " + minSize() + " to " + size());
+
+		return size() - outSize;
+	}
+}
@@ -1,11 +1,10 @@
 package edu.cg;
 
-import edu.cg.menu.MenuWindow;
-
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 public class SeamsCarver extends ImageProcessor {
 
@@ -15,307 +14,1260 @@ public class SeamsCarver extends ImageProcessor {
         BufferedImage resize();
     }
 
+    // Vertical seams run from the top of the image to its bottom and change its width, horizontal seams run from
+    // its left to its right and change its height.
+    public static enum Orientation {
+        VERTICAL, HORIZONTAL
+    }
+
+    // Rows narrower than this are not worth splitting across the for-each pool.
+    public static final int DEFAULT_PARALLEL_COST_MIN_WIDTH = 2048;
+
     // MARK: Fields
     private int numOfSeams;
     private ResizeOperation resizeOp;
     boolean[][] imageMask;
 
-    int[][] trueIndexes;
-    private boolean[][] isSeam;
-    private boolean[][] seamCarvingMask;
+    // Seams are always carved as the vertical seams of a grid of gridHeight rows of gridWidth cells. For vertical
+    // seams the grid is the image itself. For horizontal seams it is the image rotated clockwise: the cell (i, j) is
+    // the pixel (x = i, y = inHeight - 1 - j). The planes below are built in grid order (the pixel plane of a
+    // horizontal run is the ImageTransform.ROTATE_90 of the working image itself) and the result is written back in
+    // image order, so a run never keeps a rotated copy of the image next to its own planes. A two dimensional run
+    // switches between the two grids as it goes.
+    private Orientation orientation;
+    private int gridWidth;
+    private int gridHeight;
+
+    // The per pixel state of a run is kept in flat arrays with a row stride of gridWidth: the cell (i, j) lives at
+    // i * gridWidth + j. Removing a seam shifts the rest of every row left in place, so the arrays are allocated
+    // once per run and the last gridWidth - width cells of every row are left unused.
+    int[] trueIndexes;
+    private boolean[] isSeam;
+    // The index of the seam that removed each pixel, only kept while a SeamOrderIndex is built.
+    private int[] seamRanks;
+    private int seamsRemoved;
+    // The seams the current run removes in all, for its progress reports.
+    private int seamsToRemove;
+    private boolean[] seamCarvingMask;
+    private boolean[][] maskAfterSeamCarving;
+    private boolean incrementalMode;
+    private int parallelCostMinWidth;
+    private int seamBatchSize;
+    private int seamBatchGap;
+    private int pyramidLevels;
+    private int pyramidCorridor;
+    // The planes of the working image are shared through planeCache under planeKey (see setPlaneCache).
+    private PlaneCache planeCache;
+    private Object planeKey;
+
+    // The greyscale intensities (read back with & 0xFF), the energy (at most 510) and the cost matrix. A row adds
+    // at most 1020 to a cost, so the cost fits in an int for every image the constructor accepts.
+    private byte[] grey;
+    private short[] energy;
+    private int[] cost;
+    // Set when the energy of the whole grid was computed together with the greyscale intensities (see
+    // greyscaleAndEnergyOf), so the next fillEnergy has nothing to do.
+    private boolean energyFilled;
+
+    // The pixels of the carved image, with the same stride. Only kept when the run has to return the image.
+    private int[] pixels;
+
+    // Forward energy terms of every cell below the first row: the cost of the pixels that become neighbours
+    // when the seam reaches the cell from straight above (up), from the upper left (left) or from the upper right (right).
+    private short[] forwardUp;
+    private short[] forwardLeft;
+    private short[] forwardRight;
 
     public SeamsCarver(Logger logger, BufferedImage workingImage, int outWidth, RGBWeights rgbWeights,
                        boolean[][] imageMask) {
-        super((s) -> logger.log("Seam carving: " + s), workingImage, rgbWeights, outWidth, workingImage.getHeight());
+        this(logger, workingImage, outWidth, rgbWeights, imageMask, Orientation.VERTICAL);
+    }
+
+    // Resizes the image to outSize pixels across the seams: its width for vertical seams, its height for horizontal
+    // ones. The mask is always given (and returned by getMaskAfterSeamCarving) in image order.
+    public SeamsCarver(Logger logger, BufferedImage workingImage, int outSize, RGBWeights rgbWeights,
+                       boolean[][] imageMask, Orientation orientation) {
+        this(logger, workingImage, (orientation == Orientation.VERTICAL) ? outSize : workingImage.getWidth(),
+                (orientation == Orientation.VERTICAL) ? workingImage.getHeight() : outSize, rgbWeights, imageMask,
+                orientation);
+    }
+
+    // Shrinks the image to outWidth x outHeight, removing vertical and horizontal seams in a greedy order: the next
+    // seam is always the cheaper per pixel of the cheapest vertical and the cheapest horizontal seam (see
+    // retargetImage).
+    public SeamsCarver(Logger logger, BufferedImage workingImage, int outWidth, int outHeight, RGBWeights rgbWeights,
+                       boolean[][] imageMask) {
+        this(logger, workingImage, outWidth, outHeight, rgbWeights, imageMask, Orientation.VERTICAL);
+
+        if (outWidth > inWidth | outHeight > inHeight)
+            throw new RuntimeException("Can not apply seam carving: only shrinking is supported in both directions");
 
-        numOfSeams = Math.abs(outWidth - inWidth);
+        if ((long) inWidth * 1020 >= Integer.MAX_VALUE)
+            throw new RuntimeException("Can not apply seam carving: workingImage is too wide");
+
+        if (inHeight - outHeight > inHeight / 2)
+            throw new RuntimeException("Can not apply seam carving: too many seams...");
+
+        resizeOp = this::retargetImage;
+    }
+
+    private SeamsCarver(Logger logger, BufferedImage workingImage, int outWidth, int outHeight, RGBWeights rgbWeights,
+                        boolean[][] imageMask, Orientation orientation) {
+        super(Logger.prefixed(logger, "Seam carving: "), workingImage, rgbWeights, outWidth, outHeight);
+
+        this.orientation = orientation;
+        gridWidth = (orientation == Orientation.VERTICAL) ? inWidth : inHeight;
+        gridHeight = (orientation == Orientation.VERTICAL) ? inHeight : inWidth;
+        int outSize = (orientation == Orientation.VERTICAL) ? outWidth : outHeight;
+        numOfSeams = Math.abs(outSize - gridWidth);
         this.imageMask = imageMask;
-        if (inWidth < 2 | inHeight < 2)
+        if (gridWidth < 2 | gridHeight < 2)
             throw new RuntimeException("Can not apply seam carving: workingImage is too small");
 
-        if (numOfSeams > inWidth / 2)
+        if ((long) gridHeight * 1020 >= Integer.MAX_VALUE)
+            throw new RuntimeException("Can not apply seam carving: workingImage is too tall");
+
+        if (numOfSeams > gridWidth / 2)
             throw new RuntimeException("Can not apply seam carving: too many seams...");
 
         // Setting resizeOp by with the appropriate method reference
-        if (outWidth > inWidth)
+        if (outSize > gridWidth)
             resizeOp = this::increaseImageWidth;
-        else if (outWidth < inWidth)
+        else if (outSize < gridWidth)
             resizeOp = this::reduceImageWidth;
         else
             resizeOp = this::duplicateWorkingImage;
 
-        this.isSeam = new boolean[workingImage.getHeight()][workingImage.getWidth()];
-        this.trueIndexes = initializeTrueIndexes();
-        this.seamCarvingMask = imageMask;
+        this.isSeam = new boolean[gridHeight * gridWidth];
+        this.incrementalMode = true;
+        this.parallelCostMinWidth = DEFAULT_PARALLEL_COST_MIN_WIDTH;
+        this.seamBatchSize = 1;
+        this.seamBatchGap = 1;
+        this.pyramidLevels = 0;
+        this.pyramidCorridor = 0;
 
         this.logger.log("preliminary calculations were ended.");
     }
 
-    private int[][] initializeTrueIndexes() {
-        int[][] ans = new int[inHeight][inWidth];
-        for (int i = 0; i < inHeight; i++) {
-            for (int j = 0; j < inWidth; j++) {
-                ans[i][j] = j;
+    // Chooses between updating the energy and cost matrices only around each removed seam (the default)
+    // and recomputing them from scratch for every seam. Both modes produce the same image.
+    public void setIncrementalMode(boolean incrementalMode) {
+        this.incrementalMode = incrementalMode;
+    }
+
+    // When a for-each pool is set, full cost matrix passes over images at least this wide split every row
+    // across the pool. Narrower images are computed sequentially.
+    public void setParallelCostMinWidth(int parallelCostMinWidth) {
+        this.parallelCostMinWidth = parallelCostMinWidth;
+    }
+
+    // Batch mode (off by default, batch size 1): every cost matrix yields up to seamBatchSize seams that do not
+    // share pixels and are at least seamBatchGap columns apart in every row, so the matrices are recomputed about
+    // numOfSeams / seamBatchSize times instead of numOfSeams times. Larger batches are faster, smaller batches and
+    // wider gaps are closer to the exact result:
+    // - the first seam of each batch is exactly the seam the exact mode would remove from the same image;
+    // - every other seam is followed greedily up from the cheapest free bottom cell of the same cost matrix, so the
+    //   energy and forward energy terms along it are stale only in rows where it runs next to an earlier seam of its
+    //   batch, and there by at most 1020 (510 for the energy, 510 for the forward term);
+    // - with a gap of 2 or more no seam runs next to another one, so the terms along every seam are exact and the
+    //   only drift left is that seams 2..n of a batch were not re-chosen after the first ones were removed.
+    public void setSeamBatchSize(int seamBatchSize) {
+        if (seamBatchSize < 1)
+            throw new IllegalArgumentException("The seam batch size must be positive");
+
+        this.seamBatchSize = seamBatchSize;
+    }
+
+    public void setSeamBatchGap(int seamBatchGap) {
+        if (seamBatchGap < 1)
+            throw new IllegalArgumentException("The seam batch gap must be positive");
+
+        this.seamBatchGap = seamBatchGap;
+    }
+
+    // Pyramid mode (off by default, 0 levels): every seam is first found on a copy of the greyscale plane sampled
+    // down by 2^levels in both directions (nearest neighbor, as in nearestNeighbor), and then refined at full
+    // resolution by the same forward energy DP restricted to a corridor of pyramidCorridor columns on each side of
+    // the scaled up coarse seam (2 * 2^levels by default). The full size energy, forward energy and cost matrices
+    // are never allocated. Inside the corridor the result is the exact seam, it may differ from the exact mode only
+    // when the exact seam leaves the corridor.
+    public void setPyramidLevels(int pyramidLevels) {
+        if (pyramidLevels < 0)
+            throw new IllegalArgumentException("The number of pyramid levels can not be negative");
+
+        this.pyramidLevels = pyramidLevels;
+    }
+
+    public void setPyramidCorridor(int pyramidCorridor) {
+        this.pyramidCorridor = pyramidCorridor;
+    }
+
+    private int[] initializeTrueIndexes() {
+        int[] ans = new int[gridHeight * gridWidth];
+        for (int i = 0; i < gridHeight; i++) {
+            for (int j = 0; j < gridWidth; j++) {
+                ans[i * gridWidth + j] = j;
             }
         }
         return ans;
     }
 
     public BufferedImage resize() {
-        return resizeOp.resize();
+        beginOperation("seam carving");
+        return endOperation(resizeOp.resize());
+    }
+
+    // Resizes the image to outWidth x outHeight: both sides at once when neither grows, otherwise the width first,
+    // then the height.
+    public static BufferedImage retarget(Logger logger, BufferedImage img, int outWidth, int outHeight,
+                                         RGBWeights weights, boolean[][] imageMask) {
+        return retarget(logger, img, outWidth, outHeight, weights, imageMask, null);
+    }
+
+    // As above, handing the metrics of every carver it runs to the listener.
+    public static BufferedImage retarget(Logger logger, BufferedImage img, int outWidth, int outHeight,
+                                         RGBWeights weights, boolean[][] imageMask, Metrics.Listener listener) {
+        return retarget(logger, img, outWidth, outHeight, weights, imageMask, listener, sc -> {
+        });
+    }
+
+    // As above, passing every carver it runs to setup first (to choose its batch or pyramid mode, for one). The
+    // two dimensional mode, which runs when neither side grows, always removes its seams one by one.
+    public static BufferedImage retarget(Logger logger, BufferedImage img, int outWidth, int outHeight,
+                                         RGBWeights weights, boolean[][] imageMask, Metrics.Listener listener,
+                                         Consumer<SeamsCarver> setup) {
+        if (outWidth <= img.getWidth() && outHeight <= img.getHeight()) {
+            SeamsCarver both = new SeamsCarver(logger, img, outWidth, outHeight, weights, imageMask);
+            both.setMetricsListener(listener);
+            setup.accept(both);
+            return both.resize();
+        }
+        SeamsCarver sc = new SeamsCarver(logger, img, outWidth, weights, imageMask);
+        sc.setMetricsListener(listener);
+        setup.accept(sc);
+        BufferedImage ans = sc.resize();
+        SeamsCarver horizontal = new SeamsCarver(logger, ans, outHeight, weights, sc.getMaskAfterSeamCarving(),
+                Orientation.HORIZONTAL);
+        horizontal.setMetricsListener(listener);
+        setup.accept(horizontal);
+        return horizontal.resize();
     }
 
     private BufferedImage reduceImageWidth() {
+        return carveSeams(true).toImage(workingImageType);
+    }
+
+    // Removes numOfSeams seams, marking them in isSeam. When withImage is set, the seams are also removed from a
+    // copy of the working image, which is returned; otherwise the pixels are not touched and null is returned.
+    private PixelBuffer carveSeams(boolean withImage) {
+        PixelBuffer src = workingBuffer();
+        PixelBuffer grid = gridImage();
+        this.energyFilled = false;
+        this.grey = (planeCache != null) ? greyscaleGrid().clone()
+                : (pyramidLevels > 0) ? greyscaleOf(grid) : greyscaleAndEnergyOf(grid);
+        this.pixels = !withImage ? null : (grid == src || planeCache != null) ? grid.copy().pixels : grid.pixels;
+        this.trueIndexes = initializeTrueIndexes();
+        this.seamCarvingMask = toGrid(imageMask);
+        this.seamsRemoved = 0;
+        this.seamsToRemove = numOfSeams;
+        checkCancelled();
+
+        if (pyramidLevels > 0)
+            carveSeamsOnPyramid();
+        else if (seamBatchSize > 1)
+            carveSeamsInBatches();
+        else if (incrementalMode)
+            carveSeamsIncrementally();
+        else
+            carveSeamsFromScratch();
+
+        int width = gridWidth - numOfSeams;
+        this.maskAfterSeamCarving = fromGrid(seamCarvingMask, gridWidth, width);
+
+        if (pixels == null) {
+            return null;
+        }
+
+        PixelBuffer ans = fromGrid(pixels, gridWidth, width);
+        this.pixels = null;
+
+        return ans;
+    }
+
+    // MARK: Planes of the working image
+    // Shares the planes derived from the working image (its rotated copy, greyscale intensities and energy) with
+    // the other carvers that use the same cache and key, and the same weights. The key stands for the content of
+    // the working image: pass the image it was copied from, and invalidate the key in the cache when that changes.
+    public void setPlaneCache(PlaneCache planeCache, Object planeKey) {
+        this.planeCache = planeCache;
+        this.planeKey = planeKey;
+    }
+
+    // The working image in grid order. It is shared with the cache (or is the working buffer itself) unless it is
+    // a rotation made for this run only.
+    private PixelBuffer gridImage() {
+        if (orientation == Orientation.VERTICAL) {
+            return workingBuffer();
+        }
+        if (planeCache == null) {
+            return ImageTransform.ROTATE_90.apply(workingBuffer());
+        }
+        return planeCache.get(planeKey, rgbWeights, PlaneCache.Plane.ROTATED, orientation,
+                () -> ImageTransform.ROTATE_90.apply(workingBuffer()));
+    }
+
+    // The greyscale intensities of the working image in grid order, shared with the cache when there is one.
+    private byte[] greyscaleGrid() {
+        if (planeCache == null) {
+            return greyscaleOf(gridImage());
+        }
+        return planeCache.get(planeKey, rgbWeights, PlaneCache.Plane.GREYSCALE, orientation,
+                () -> greyscaleOf(gridImage()));
+    }
+
+    // The energy of the working image in grid order, shared with the cache when there is one.
+    private short[] energyGrid() {
+        if (planeCache == null) {
+            return computeEnergyGrid();
+        }
+        return planeCache.get(planeKey, rgbWeights, PlaneCache.Plane.ENERGY, orientation, this::computeEnergyGrid);
+    }
+
+    // Without a cache, the greyscale intensities are not kept: the energy is computed straight from the pixels.
+    private short[] computeEnergyGrid() {
+        short[] ans = new short[gridHeight * gridWidth];
+        if (planeCache == null) {
+            PixelBuffer grid = gridImage();
+            phaseStart(Metrics.Phase.ENERGY);
+            greyscaleAndEnergy(grid, rgbWeights, null, ans);
+            phaseEnd(Metrics.Phase.ENERGY, ans.length);
+            return ans;
+        }
+        byte[] plane = greyscaleGrid();
+        phaseStart(Metrics.Phase.ENERGY);
+        for (int i = 0; i < gridHeight; i++) {
+            for (int j = 0; j < gridWidth; j++) {
+                ans[i * gridWidth + j] = (short) pixelEnergy(plane, gridWidth, gridHeight, gridWidth, i, j);
+            }
+        }
+        phaseEnd(Metrics.Phase.ENERGY, ans.length);
+        return ans;
+    }
+
+    // The greyscale intensities of an image in grid order.
+    private byte[] greyscaleOf(PixelBuffer grid) {
+        phaseStart(Metrics.Phase.GREYSCALE);
+        byte[] ans = greyscalePlane(greyscale(grid));
+        phaseEnd(Metrics.Phase.GREYSCALE, ans.length);
+        return ans;
+    }
+
+    // The greyscale intensities of an image in grid order, whose energy fills the energy plane in the same pass
+    // (for the next fillEnergy of the whole grid).
+    private byte[] greyscaleAndEnergyOf(PixelBuffer grid) {
+        if (energy == null) {
+            energy = new short[gridHeight * gridWidth];
+        }
+        phaseStart(Metrics.Phase.ENERGY);
+        byte[] ans = new byte[grid.height * grid.width];
+        greyscaleAndEnergy(grid, rgbWeights, ans, energy);
+        phaseEnd(Metrics.Phase.ENERGY, ans.length);
+        this.energyFilled = true;
+        return ans;
+    }
+
+    // MARK: Grid order
+    // The index in the image buffer of the grid cell (i, j).
+    private int imageIndex(int i, int j) {
+        return (orientation == Orientation.VERTICAL) ? i * inWidth + j : (inHeight - 1 - j) * inWidth + i;
+    }
 
-        BufferedImage curWorkingImage = this.duplicateWorkingImage();
-        BufferedImage greyWorkingImg = new ImageProcessor(logger, curWorkingImage, rgbWeights, inWidth, curWorkingImage.getHeight()).greyscale();
-        this.trueindexes = initializeTrueIndexes();
+    private boolean[] toGrid(boolean[][] mask) {
+        boolean[][] rows = (orientation == Orientation.VERTICAL) ? mask : ImageTransform.ROTATE_90.apply(mask);
+        boolean[] ans = new boolean[gridHeight * gridWidth];
+        for (int i = 0; i < gridHeight; i++) {
+            System.arraycopy(rows[i], 0, ans, i * gridWidth, gridWidth);
+        }
+        return ans;
+    }
 
+    // The image whose grid is made of the first width cells of every row of the plane. For vertical seams the rows
+    // are packed to the new width inside the plane itself, which then backs the returned buffer.
+    private PixelBuffer fromGrid(int[] plane, int stride, int width) {
+        phaseStart(Metrics.Phase.COMPACTION);
+        PixelBuffer ans;
+        if (orientation == Orientation.HORIZONTAL) {
+            ans = ImageTransform.ROTATE_270.apply(plane, width, gridHeight, stride);
+        } else {
+            // every row moves left, so copying them in order never overwrites one
+            for (int i = 1; stride != width && i < gridHeight; i++) {
+                System.arraycopy(plane, i * stride, plane, i * width, width);
+            }
+            ans = new PixelBuffer(width, gridHeight, plane);
+        }
+        phaseEnd(Metrics.Phase.COMPACTION, 0);
+        return ans;
+    }
+
+    private boolean[][] fromGrid(boolean[] plane, int stride, int width) {
+        boolean[][] ans = new boolean[gridHeight][width];
+        for (int i = 0; i < gridHeight; i++) {
+            System.arraycopy(plane, i * stride, ans[i], 0, width);
+        }
+        return (orientation == Orientation.VERTICAL) ? ans : ImageTransform.ROTATE_270.apply(ans);
+    }
+
+    private void carveSeamsFromScratch() {
         for (int i = 0; i < numOfSeams; i++) {
 
-            long[][] energy = calculatePixelsEnergy(inHeight, inWidth - i, greyWorkingImg);
-            long[][] cost = calculateCostMatrix(inHeight, inWidth - i, greyWorkingImg, energy);
+            fillEnergy(gridWidth - i);
+            fillForwardEnergy(gridWidth - i);
+            fillCostMatrix(gridWidth - i);
 
-            Stack<Integer> seamToRemove = backTracking(cost, energy, inHeight, inWidth - i, greyWorkingImg);
-            int newWidth = inWidth - i - 1;
+            int[] seamToRemove = backTracking(gridHeight, gridWidth - i);
 
+            removeSeam(seamToRemove, gridWidth - i);
+        }
+    }
 
-            //remove seam + create new image mask
-            BufferedImage plainImage = newEmptyImage(newWidth, inHeight);
-            boolean[][] newImageMask = new boolean[inHeight][newWidth];
+    // MARK: Incremental mode
+    // The greyscale intensities, the energy and the cost matrix are kept between iterations. A seam only
+    // changes the neighbourhood of its own pixels, so after each removal every row is shifted in place and
+    // only the cells next to the seam are recomputed. Below the seam's band, a cost cell is recomputed only
+    // if one of its three predecessors in the previous row actually changed.
+    private void carveSeamsIncrementally() {
 
-            int[][] newTrueIndexes = new int[inHeight][newWidth];
+        int width = gridWidth;
+        fillEnergy(width);
+        fillForwardEnergy(width);
+        fillCostMatrix(width);
 
-            for (int rows = 0; rows < inHeight; rows++) {
-                int relatedPixel = seamToRemove.pop();
-                //initialize the seams matrix
+        for (int i = 0; i < numOfSeams; i++) {
 
-                int trueValPixel = this.trueIndexes[rows][relatedPixel];
-                this.isSeam[rows][trueValPixel] = true;
+            int[] seamToRemove = backTracking(gridHeight, width);
+            removeSeam(seamToRemove, width);
+            width--;
 
-                int col = 0;
-                while (col < relatedPixel) {
-                    newImageMask[rows][col] = this.seamCarvingMask[rows][col];
-                    plainImage.setRGB(col, rows, curWorkingImage.getRGB(col, rows));
-                    newTrueIndexes[rows][col] = this.trueIndexes[rows][col];
+            if (i == numOfSeams - 1) {
+                break;
+            }
 
-                    col++;
+            updateAfterSeam(seamToRemove, width);
+        }
+    }
+
+    // Brings the energy, forward energy and cost matrices up to date after the seam was removed from the planes.
+    private void updateAfterSeam(int[] seamToRemove, int width) {
+        phaseStart(Metrics.Phase.ENERGY);
+        long cells = 0;
+        for (int row = 0; row < gridHeight; row++) {
+            int offset = row * gridWidth;
+            removeColumn(energy, offset, seamToRemove[row], width);
+
+            int from = Math.max(seamToRemove[row] - 2, 0);
+            int to = Math.min(seamToRemove[row] + 1, width - 1);
+            for (int col = from; col <= to; col++) {
+                energy[offset + col] = (short) pixelEnergy(grey, gridWidth, gridHeight, width, row, col);
+            }
+            if (row > 0) {
+                removeColumn(forwardUp, offset, seamToRemove[row], width);
+                removeColumn(forwardLeft, offset, seamToRemove[row], width);
+                removeColumn(forwardRight, offset, seamToRemove[row], width);
+                updateForwardEnergy(width, row, from, to);
+            }
+            cells += to - from + 1;
+        }
+        phaseEnd(Metrics.Phase.ENERGY, cells);
+
+        phaseStart(Metrics.Phase.COST);
+        cells = 0;
+
+        // [dirtyFrom, dirtyTo] bounds the cells of the previous cost row whose value has changed
+        int dirtyFrom = 0;
+        int dirtyTo = -1;
+        for (int row = 0; row < gridHeight; row++) {
+            int offset = row * gridWidth;
+            removeColumn(cost, offset, seamToRemove[row], width);
+
+            int from = seamToRemove[row] - 2;
+            int to = seamToRemove[row] + 1;
+            if (dirtyFrom <= dirtyTo) {
+                from = Math.min(from, dirtyFrom - 1);
+                to = Math.max(to, dirtyTo + 1);
+            }
+            from = Math.max(from, 0);
+            to = Math.min(to, width - 1);
+
+            dirtyFrom = 0;
+            dirtyTo = -1;
+            for (int col = from; col <= to; col++) {
+                int value = cellCost(width, row, col);
+                if (value != cost[offset + col]) {
+                    cost[offset + col] = value;
+                    if (dirtyFrom > dirtyTo) {
+                        dirtyFrom = col;
+                    }
+                    dirtyTo = col;
                 }
-                col++;
-                while (col < inWidth - i) {
+            }
+            cells += to - from + 1;
+        }
+        phaseEnd(Metrics.Phase.COST, cells);
+    }
 
-                    newImageMask[rows][col - 1] = this.seamCarvingMask[rows][col];
-                    newTrueIndexes[rows][col - 1] = trueIndexes[rows][col];
+    // MARK: Two dimensional mode
+    // Shrinks both dimensions, choosing the order of the seams greedily (the optimal order of Avidan and Shamir
+    // needs a carving state for every pair of seam counts, which is out of reach for large images). The planes are
+    // kept in the grid of the current orientation only, and its matrices are updated after every seam as in the
+    // incremental mode. The cheapest seam of the other orientation is remembered from the last time its matrices
+    // were filled: while the current cheapest seam is not more expensive than that, it is removed, otherwise the
+    // planes are moved to the other grid and its matrices are filled again. So a full pass is only spent on a change
+    // of direction, where the exact greedy order needs two (one per direction) for every seam.
+    //
+    // Seams are compared by their cost per pixel: a vertical seam has a cell in every row and a horizontal one in
+    // every column, so on any image that is not square the total costs would favour the shorter seams.
+    private BufferedImage retargetImage() {
+        PixelBuffer src = workingBuffer();
+        this.energyFilled = false;
+        this.grey = (planeCache == null) ? greyscaleAndEnergyOf(src) : greyscaleGrid().clone();
+        this.pixels = src.copy().pixels;
+        this.trueIndexes = null;
+        this.seamCarvingMask = toGrid(imageMask);
+        this.seamsRemoved = 0;
+
+        // indexed by Orientation.ordinal()
+        int[] seamsLeft = { inWidth - outWidth, inHeight - outHeight };
+        this.seamsToRemove = seamsLeft[0] + seamsLeft[1];
+        checkCancelled();
+        int width = gridWidth;
+        boolean filled = false;
+        int cheapest = 0;
+        long otherCheapest = 0;
+        int otherLength = 0; // the cells of the other orientation's cheapest seam, 0 while it is not known
+        int fullPasses = 0;
+        int switches = 0;
+
+        while (seamsLeft[0] + seamsLeft[1] > 0) {
+            int here = orientation.ordinal();
+            if (!filled && seamsLeft[here] > 0) {
+                fillEnergy(width);
+                fillForwardEnergy(width);
+                fillCostMatrix(width);
+                cheapest = cheapestSeamCost(width);
+                filled = true;
+                fullPasses++;
+            }
+
+            // otherCheapest / otherLength < cheapest / gridHeight, without rounding
+            if (seamsLeft[here] == 0 || (seamsLeft[1 - here] > 0
+                    && (otherLength == 0 || otherCheapest * gridHeight < (long) cheapest * otherLength))) {
+                otherCheapest = cheapest;
+                otherLength = gridHeight;
+                width = switchOrientation(width);
+                filled = false;
+                switches++;
+                continue;
+            }
+
+            int[] seamToRemove = backTracking(gridHeight, width);
+            removeSeam(seamToRemove, width);
+            width--;
+            seamsLeft[here]--;
+
+            if (seamsLeft[here] > 0) {
+                updateAfterSeam(seamToRemove, width);
+                cheapest = cheapestSeamCost(width);
+            }
+        }
 
-                    plainImage.setRGB(col - 1, rows, curWorkingImage.getRGB(col, rows));
-                    col++;
+        logger.log((inWidth - outWidth + inHeight - outHeight) + " seams removed with " + fullPasses
+                + " full passes and " + switches + " changes of direction.");
+
+        this.maskAfterSeamCarving = fromGrid(seamCarvingMask, gridWidth, width);
+        return fromGrid(pixels, gridWidth, width).toImage(workingImageType);
+    }
+
+    private int cheapestSeamCost(int width) {
+        int ans = Integer.MAX_VALUE;
+        int lastRow = (gridHeight - 1) * gridWidth;
+        for (int j = 0; j < width; j++) {
+            ans = Math.min(ans, cost[lastRow + j]);
+        }
+        return ans;
+    }
+
+    // Moves the pixel, greyscale and mask planes of a two dimensional run, whose rows are width cells wide, to the
+    // grid of the other orientation. Returns the width of the new grid.
+    private int switchOrientation(int width) {
+        PixelBuffer image = fromGrid(pixels, gridWidth, width);
+        boolean[][] mask = fromGrid(seamCarvingMask, gridWidth, width);
+
+        orientation = (orientation == Orientation.VERTICAL) ? Orientation.HORIZONTAL : Orientation.VERTICAL;
+        gridWidth = (orientation == Orientation.VERTICAL) ? image.width : image.height;
+        gridHeight = (orientation == Orientation.VERTICAL) ? image.height : image.width;
+
+        PixelBuffer grid = (orientation == Orientation.VERTICAL) ? image : ImageTransform.ROTATE_90.apply(image);
+        this.pixels = grid.pixels;
+        this.grey = (planeCache != null && seamsRemoved == 0) ? greyscaleGrid().clone() : greyscaleAndEnergyOf(grid);
+        this.seamCarvingMask = toGrid(mask);
+
+        return gridWidth;
+    }
+
+    // MARK: Pyramid mode
+    private void carveSeamsOnPyramid() {
+
+        int factor = 1 << pyramidLevels;
+        int corridor = (pyramidCorridor > 0) ? pyramidCorridor : 2 * factor;
+        int coarseHeight = Math.max(gridHeight / factor, 2);
+        int coarseMaxWidth = Math.max(gridWidth / factor, 2);
+        int corridorStride = Math.min(2 * corridor + 1, gridWidth);
+        int corridorWidth = corridorStride;
+
+        byte[] coarseGrey = new byte[coarseHeight * coarseMaxWidth];
+        boolean[] coarseMask = new boolean[coarseHeight * coarseMaxWidth];
+        int[] coarseCost = new int[coarseHeight * coarseMaxWidth];
+        int[] coarseFrom = new int[coarseHeight];
+        int[] coarseTo = new int[coarseHeight];
+        int[] corridorCost = new int[gridHeight * corridorStride];
+        int[] corridorFrom = new int[gridHeight];
+        int[] corridorTo = new int[gridHeight];
+        int width = gridWidth;
+
+        for (int i = 0; i < numOfSeams; i++) {
+            int coarseWidth = Math.max(width / factor, 2);
+            phaseStart(Metrics.Phase.COST);
+
+            for (int y = 0; y < coarseHeight; y++) {
+                int originalOffset = ((y * gridHeight) / coarseHeight) * gridWidth;
+                for (int x = 0; x < coarseWidth; x++) {
+                    int originalX = (x * width) / coarseWidth;
+                    coarseGrey[y * coarseMaxWidth + x] = grey[originalOffset + originalX];
+                    coarseMask[y * coarseMaxWidth + x] = seamCarvingMask[originalOffset + originalX];
+                }
+            }
+            Arrays.fill(coarseFrom, 0);
+            Arrays.fill(coarseTo, coarseWidth - 1);
+            int[] coarseSeam = corridorSeam(coarseGrey, coarseMask, coarseMaxWidth, coarseHeight, coarseWidth,
+                    coarseFrom, coarseTo, coarseCost, coarseMaxWidth);
+
+            for (int y = 0; y < gridHeight; y++) {
+                int coarseY = Math.min((y * coarseHeight) / gridHeight, coarseHeight - 1);
+                int center = (2 * coarseSeam[coarseY] + 1) * width / (2 * coarseWidth);
+                corridorFrom[y] = Math.max(center - corridor, 0);
+                corridorTo[y] = Math.min(corridorFrom[y] + corridorWidth - 1, width - 1);
+                corridorFrom[y] = corridorTo[y] - corridorWidth + 1;
+            }
+            int[] seamToRemove = corridorSeam(grey, seamCarvingMask, gridWidth, gridHeight, width,
+                    corridorFrom, corridorTo, corridorCost, corridorStride);
+            phaseEnd(Metrics.Phase.COST, (long) coarseWidth * coarseHeight + (long) corridorWidth * gridHeight);
+
+            removeSeam(seamToRemove, width);
+            width--;
+            corridorWidth = Math.min(corridorWidth, width);
+        }
+    }
+
+    // The forward energy DP and backtracking of the exact mode, restricted to the columns [from[i], to[i]] of every
+    // row i of a plane with the given stride. cost[i * costStride + j - from[i]] holds the cost of the cell (i, j);
+    // cells outside the corridor can not be used.
+    private static int[] corridorSeam(byte[] grey, boolean[] mask, int stride, int height, int width,
+                                      int[] from, int[] to, int[] cost, int costStride) {
+        for (int i = 0; i < height; i++) {
+            for (int j = from[i]; j <= to[i]; j++) {
+                int value;
+                if (mask[i * stride + j]) {
+                    value = Integer.MIN_VALUE;
+                } else {
+                    int e = pixelEnergy(grey, stride, height, width, i, j);
+                    if (i == 0) {
+                        value = e;
+                    } else {
+                        int top = corridorCell(cost, costStride, from, to, i - 1, j);
+                        if (top != Integer.MAX_VALUE) {
+                            top += calcCU(grey, stride, width, i, j);
+                        }
+                        int right = (j < width - 1) ? corridorCell(cost, costStride, from, to, i - 1, j + 1) : Integer.MAX_VALUE;
+                        if (right != Integer.MAX_VALUE) {
+                            right += calcCR(grey, stride, i, j);
+                        }
+                        int left = (j > 0) ? corridorCell(cost, costStride, from, to, i - 1, j - 1) : Integer.MAX_VALUE;
+                        if (left != Integer.MAX_VALUE) {
+                            left += calcCL(grey, stride, width, i, j);
+                        }
+                        int best = Math.min(top, Math.min(left, right));
+                        value = (best == Integer.MAX_VALUE) ? Integer.MAX_VALUE : e + best;
+                    }
                 }
+                cost[i * costStride + j - from[i]] = value;
             }
+        }
 
-            this.seamCarvingMask = newImageMask;
-            this.trueIndexes = newTrueIndexes;
-            curWorkingImage = plainImage;
-            greyWorkingImg = new ImageProcessor(logger, curWorkingImage, rgbWeights, newWidth, curWorkingImage.getHeight()).greyscale();
+        int[] ans = new int[height];
+        int minVal = Integer.MAX_VALUE;
+        ans[height - 1] = from[height - 1];
+        for (int j = from[height - 1]; j <= to[height - 1]; j++) {
+            int value = corridorCell(cost, costStride, from, to, height - 1, j);
+            if (minVal > value) {
+                minVal = value;
+                ans[height - 1] = j;
+            }
         }
 
-        return curWorkingImage;
+        for (int i = height - 1; i > 0; i--) {
+            int j = ans[i];
+            int up = corridorCell(cost, costStride, from, to, i - 1, j);
+            int upR = (j < width - 1) ? corridorCell(cost, costStride, from, to, i - 1, j + 1) : Integer.MAX_VALUE;
+            int upL = (j > 0) ? corridorCell(cost, costStride, from, to, i - 1, j - 1) : Integer.MAX_VALUE;
+
+            if (up <= upR && up <= upL) {
+                ans[i - 1] = j;
+            } else if (upR <= up && upR <= upL) {
+                ans[i - 1] = j + 1;
+            } else {
+                ans[i - 1] = j - 1;
+            }
+        }
+
+        return ans;
+    }
+
+    private static int corridorCell(int[] cost, int costStride, int[] from, int[] to, int i, int j) {
+        return (j < from[i] || j > to[i]) ? Integer.MAX_VALUE : cost[i * costStride + j - from[i]];
+    }
+
+    // MARK: Batch mode
+    private void carveSeamsInBatches() {
+
+        boolean[] taken = new boolean[gridHeight * gridWidth];
+        int width = gridWidth;
+        int removed = 0;
+
+        while (removed < numOfSeams) {
+            fillEnergy(width);
+            fillForwardEnergy(width);
+            fillCostMatrix(width);
+
+            Arrays.fill(taken, false);
+            int[][] seams = findSeamBatch(taken, width, Math.min(seamBatchSize, numOfSeams - removed));
+            removeSeams(seams, width);
+            width -= seams.length;
+            removed += seams.length;
+        }
     }
 
-    private int[][] initializeTrueIndexes() {
-        int[][] ans = new int[inHeight][inWidth];
-        for(int i =0; i < inHeight; i++){
-            for(int j = 0; j < inWidth; j++){
-                ans[i][j] = j;
+    // Finds up to count seams in the cost matrix: the exact one first, then greedy ones that keep away from it.
+    private int[][] findSeamBatch(boolean[] taken, int width, int count) {
+        int[][] ans = new int[count][];
+        ans[0] = backTracking(gridHeight, width);
+        int found = 1;
+
+        phaseStart(Metrics.Phase.BACKTRACKING);
+        takeSeam(taken, ans[0], width);
+
+        // the cells of the last row by cost, then by column: the cost in the high half of a long, the column in the
+        // low one (the costs are never negative)
+        long[] bottomCells = new long[width];
+        int lastRow = (gridHeight - 1) * gridWidth;
+        for (int j = 0; j < width; j++) {
+            bottomCells[j] = ((long) cost[lastRow + j] << 32) | j;
+        }
+        Arrays.sort(bottomCells);
+
+        for (int c = 0; c < width && found < count; c++) {
+            int[] seam = followFreeSeam(taken, width, (int) bottomCells[c]);
+            if (seam != null) {
+                takeSeam(taken, seam, width);
+                ans[found++] = seam;
             }
         }
+
+        phaseEnd(Metrics.Phase.BACKTRACKING, (long) (found - 1) * gridHeight);
+        return (found == count) ? ans : Arrays.copyOf(ans, found);
+    }
+
+    // Walks up from the bottom cell through the cheapest free predecessors, with backTracking's tie breaking.
+    // Returns null when the walk gets stuck.
+    private int[] followFreeSeam(boolean[] taken, int width, int bottomCol) {
+        if (taken[(gridHeight - 1) * gridWidth + bottomCol]) {
+            return null;
+        }
+
+        int[] ans = new int[gridHeight];
+        ans[gridHeight - 1] = bottomCol;
+
+        for (int i = gridHeight - 1; i > 0; i--) {
+            int j = ans[i];
+            int k = (i - 1) * gridWidth + j;
+            int up = taken[k] ? Integer.MAX_VALUE : cost[k];
+            int upR = (j == width - 1 || taken[k + 1]) ? Integer.MAX_VALUE : cost[k + 1];
+            int upL = (j == 0 || taken[k - 1]) ? Integer.MAX_VALUE : cost[k - 1];
+
+            if (up == Integer.MAX_VALUE && upR == Integer.MAX_VALUE && upL == Integer.MAX_VALUE) {
+                return null;
+            }
+
+            if (up <= upR && up <= upL) {
+                ans[i - 1] = j;
+            } else if (upR <= up && upR <= upL) {
+                ans[i - 1] = j + 1;
+            } else {
+                ans[i - 1] = j - 1;
+            }
+        }
+
         return ans;
     }
 
+    // Marks the seam's pixels, and the ones closer than seamBatchGap columns to them, as taken.
+    private void takeSeam(boolean[] taken, int[] seam, int width) {
+        for (int i = 0; i < gridHeight; i++) {
+            int from = Math.max(seam[i] - seamBatchGap + 1, 0);
+            int to = Math.min(seam[i] + seamBatchGap - 1, width - 1);
+            Arrays.fill(taken, i * gridWidth + from, i * gridWidth + to + 1, true);
+        }
+    }
 
-    private Stack backTracking(long[][] cost, long[][] energy, int height, int width, BufferedImage greyImg) {
+    // Removes several disjoint seams at once from the pixels, the greyscale plane, the mask and the true indexes.
+    private void removeSeams(int[][] seams, int width) {
+        phaseStart(Metrics.Phase.COMPACTION);
+        int[] cols = new int[seams.length];
+
+        for (int rows = 0; rows < gridHeight; rows++) {
+            int offset = rows * gridWidth;
+            for (int k = 0; k < seams.length; k++) {
+                cols[k] = seams[k][rows];
+                this.isSeam[offset + this.trueIndexes[offset + cols[k]]] = true;
+                if (this.seamRanks != null) {
+                    this.seamRanks[offset + this.trueIndexes[offset + cols[k]]] = seamsRemoved + k;
+                }
+            }
+            Arrays.sort(cols);
 
-        Stack<Integer> ans = new Stack();
+            if (this.pixels != null) {
+                copyRowWithout(this.pixels, offset, cols, this.pixels, offset, width);
+            }
+            copyRowWithout(this.seamCarvingMask, offset, cols, this.seamCarvingMask, offset, width);
+            copyRowWithout(this.trueIndexes, offset, cols, this.trueIndexes, offset, width);
+            copyRowWithout(this.grey, offset, cols, this.grey, offset, width);
+        }
+        seamsRemoved += seams.length;
+        phaseEnd(Metrics.Phase.COMPACTION, (long) seams.length * gridHeight);
+        seamsDone(seams.length);
+    }
 
-        long minVal = Integer.MAX_VALUE;
+    // Copies width elements of the src array (any primitive array) to dst, skipping the sorted columns.
+    // src and dst may be the same array.
+    private static void copyRowWithout(Object src, int srcOffset, int[] sortedCols, Object dst, int dstOffset, int width) {
+        int from = 0;
+        int to = 0;
+        for (int col : sortedCols) {
+            System.arraycopy(src, srcOffset + from, dst, dstOffset + to, col - from);
+            to += col - from;
+            from = col + 1;
+        }
+        System.arraycopy(src, srcOffset + from, dst, dstOffset + to, width - from);
+    }
+
+    // Removes the seam (a column per row) in place from the pixels, the greyscale plane, the mask and the true
+    // indexes, and marks it in isSeam. Only the cells to the right of the seam move.
+    private void removeSeam(int[] seamToRemove, int width) {
+        phaseStart(Metrics.Phase.COMPACTION);
+        int newWidth = width - 1;
+
+        for (int rows = 0; rows < gridHeight; rows++) {
+            int offset = rows * gridWidth;
+            int relatedPixel = seamToRemove[rows];
+            //initialize the seams matrix
+
+            // (a two dimensional run does not track the seams)
+            if (this.trueIndexes != null) {
+                int trueValPixel = this.trueIndexes[offset + relatedPixel];
+                this.isSeam[offset + trueValPixel] = true;
+                if (this.seamRanks != null) {
+                    this.seamRanks[offset + trueValPixel] = seamsRemoved;
+                }
+                removeColumn(this.trueIndexes, offset, relatedPixel, newWidth);
+            }
+
+            //remove seam
+            if (this.pixels != null) {
+                removeColumn(this.pixels, offset, relatedPixel, newWidth);
+            }
+            removeColumn(this.seamCarvingMask, offset, relatedPixel, newWidth);
+            removeColumn(this.grey, offset, relatedPixel, newWidth);
+        }
+        seamsRemoved++;
+        phaseEnd(Metrics.Phase.COMPACTION, gridHeight);
+        seamsDone(1);
+    }
+
+    // Called after every removal of count seams: counts them in the metrics, logs the progress every tenth of the
+    // run (and every seam at the DEBUG level), and stops the run here if it was cancelled.
+    private void seamsDone(int count) {
+        if (metrics != null) {
+            metrics.addSeams(count);
+        }
+        logger.log(Logger.Level.DEBUG, () -> "Removed seam " + seamsRemoved + " of " + seamsToRemove + ".");
+        if ((long) seamsRemoved * 10 / seamsToRemove != (long) (seamsRemoved - count) * 10 / seamsToRemove) {
+            logger.log("Removed " + seamsRemoved + " of " + seamsToRemove + " seams.");
+        }
+        checkCancelled();
+    }
+
+    // Shifts the cells after col of the row starting at offset (in any primitive array) one cell left.
+    private static void removeColumn(Object plane, int offset, int col, int newWidth) {
+        System.arraycopy(plane, offset + col + 1, plane, offset + col, newWidth - col);
+    }
+
+    // The intensities of a greyscaled buffer (all three channels are equal, so the red one is taken).
+    private static byte[] greyscalePlane(PixelBuffer greyscaleImage) {
+        byte[] ans = new byte[greyscaleImage.height * greyscaleImage.width];
+        for (int k = 0; k < ans.length; k++) {
+            ans[k] = (byte) (greyscaleImage.pixels[k] >> 16);
+        }
+        return ans;
+    }
+
+    // The energy of a pixel: its difference from the next pixel in its row and from the pixel below it
+    // (or from the previous ones, at the last column and the last row).
+    private static int pixelEnergy(byte[] grey, int stride, int height, int width, int i, int j) {
+        int k = i * stride + j;
+        int curVal = grey[k] & 0xFF;
+        int e1 = (j < width - 1) ? Math.abs(curVal - (grey[k + 1] & 0xFF)) : Math.abs(curVal - (grey[k - 1] & 0xFF));
+        int e2 = (i < height - 1) ? Math.abs(curVal - (grey[k + stride] & 0xFF)) : Math.abs(curVal - (grey[k - stride] & 0xFF));
+        return e1 + e2;
+    }
+
+    // The greyscale intensities (as PixelKernels.intensities computes them) and the energy (as pixelEnergy defines
+    // it) of a buffer, in one pass over its pixels: the intensities of a row are computed right before the energy of
+    // the row above, which needs them. The intensities fill grey, when it is given; otherwise only the last three
+    // rows of them are kept (the last row of the energy needs the row above it).
+    private static void greyscaleAndEnergy(PixelBuffer src, RGBWeights weights, byte[] grey, short[] energy) {
+        int width = src.width;
+        int height = src.height;
+        byte[] rows = (grey != null) ? grey : new byte[3 * width];
+        int rowsKept = (grey != null) ? height : 3;
+
+        PixelKernels.intensities(weights, src.pixels, 0, width, rows, 0);
+        for (int i = 0; i < height; i++) {
+            int cur = (i % rowsKept) * width;
+            int other;
+            if (i < height - 1) {
+                other = ((i + 1) % rowsKept) * width;
+                PixelKernels.intensities(weights, src.pixels, (i + 1) * width, (i + 2) * width, rows, other);
+            } else {
+                other = ((i - 1) % rowsKept) * width;
+            }
+
+            int k = i * width;
+            for (int j = 0; j < width - 1; j++) {
+                int curVal = rows[cur + j] & 0xFF;
+                int e1 = Math.abs(curVal - (rows[cur + j + 1] & 0xFF));
+                int e2 = Math.abs(curVal - (rows[other + j] & 0xFF));
+                energy[k + j] = (short) (e1 + e2);
+            }
+            int last = width - 1;
+            int curVal = rows[cur + last] & 0xFF;
+            int e1 = Math.abs(curVal - (rows[cur + last - 1] & 0xFF));
+            int e2 = Math.abs(curVal - (rows[other + last] & 0xFF));
+            energy[k + last] = (short) (e1 + e2);
+        }
+    }
+
+    private void fillEnergy(int width) {
+        if (energy == null) {
+            energy = new short[gridHeight * gridWidth];
+        }
+        // the whole grid, whose energy came with its greyscale intensities
+        if (energyFilled) {
+            energyFilled = false;
+            if (width == gridWidth) {
+                return;
+            }
+        }
+        // the whole untouched grid: the cached energy of the working image
+        if (planeCache != null && seamsRemoved == 0 && width == gridWidth) {
+            System.arraycopy(energyGrid(), 0, energy, 0, gridHeight * gridWidth);
+            return;
+        }
+        phaseStart(Metrics.Phase.ENERGY);
+        for (int i = 0; i < gridHeight; i++) {
+            for (int j = 0; j < width; j++) {
+                energy[i * gridWidth + j] = (short) pixelEnergy(grey, gridWidth, gridHeight, width, i, j);
+            }
+        }
+        phaseEnd(Metrics.Phase.ENERGY, (long) width * gridHeight);
+    }
+
+    // A single cell of the forward energy cost matrix. Masked pixels get a very low cost so seams go through them.
+    private int cellCost(int width, int i, int j) {
+        int k = i * gridWidth + j;
+        if (seamCarvingMask[k]) {
+            return Integer.MIN_VALUE;
+        }
+        int e = energy[k];
+        if (i == 0) {
+            return e;
+        }
+        int up = k - gridWidth;
+        int top = cost[up] + forwardUp[k];
+        if (j == 0) {
+            return e + Math.min(top, cost[up + 1] + forwardRight[k]);
+        } else if (j == width - 1) {
+            return e + Math.min(top, cost[up - 1] + forwardLeft[k]);
+        } else {
+            return e + Math.min(top, Math.min(cost[up + 1] + forwardRight[k], cost[up - 1] + forwardLeft[k]));
+        }
+    }
+
+    private void fillForwardEnergy(int width) {
+        if (forwardUp == null) {
+            forwardUp = new short[gridHeight * gridWidth];
+            forwardLeft = new short[gridHeight * gridWidth];
+            forwardRight = new short[gridHeight * gridWidth];
+        }
+        // unlike the cost rows, the rows of these tables are independent of each other
+        phaseStart(Metrics.Phase.ENERGY);
+        pushForEachParameters();
+        setForEachParameters(width, gridHeight);
+        forEachRowRange((fromY, toY) -> {
+            for (int i = Math.max(fromY, 1); i < toY; i++) {
+                updateForwardEnergy(width, i, 0, width - 1);
+            }
+        });
+        popForEachParameters();
+        phaseEnd(Metrics.Phase.ENERGY, (long) width * (gridHeight - 1));
+    }
+
+    // Recomputes the forward energy terms of the cells [from, to] of row i (i > 0). Each term is at most 510.
+    // The left term is not defined at the first column, nor the right one at the last column.
+    private void updateForwardEnergy(int width, int i, int from, int to) {
+        int offset = i * gridWidth;
+        for (int j = from; j <= to; j++) {
+            forwardUp[offset + j] = (short) calcCU(grey, gridWidth, width, i, j);
+            forwardLeft[offset + j] = (j > 0) ? (short) calcCL(grey, gridWidth, width, i, j) : 0;
+            forwardRight[offset + j] = (j < width - 1) ? (short) calcCR(grey, gridWidth, i, j) : 0;
+        }
+    }
+
+    private static int calcCU(byte[] grey, int stride, int width, int i, int j) {
+        int k = i * stride + j;
+        return (j == 0 || j == width - 1) ? 255 : Math.abs((grey[k + 1] & 0xFF) - (grey[k - 1] & 0xFF));
+    }
+
+    private static int calcCR(byte[] grey, int stride, int i, int j) {
+        int k = i * stride + j;
+        int a = (j > 0) ? Math.abs((grey[k + 1] & 0xFF) - (grey[k - 1] & 0xFF)) : 255;
+        int b = Math.abs((grey[k + 1] & 0xFF) - (grey[k - stride] & 0xFF));
+        return a + b;
+    }
+
+    private static int calcCL(byte[] grey, int stride, int width, int i, int j) {
+        int k = i * stride + j;
+        int a = (j < width - 1) ? Math.abs((grey[k + 1] & 0xFF) - (grey[k - 1] & 0xFF)) : 255;
+        int b = Math.abs((grey[k - stride] & 0xFF) - (grey[k - 1] & 0xFF));
+        return a + b;
+    }
+
+    // The cheapest seam: the column of its cell in every row, from the cheapest cell of the last row up.
+    private int[] backTracking(int height, int width) {
+
+        phaseStart(Metrics.Phase.BACKTRACKING);
+        int[] ans = new int[height];
+
+        int minVal = Integer.MAX_VALUE;
         int minValPosition = 0;
 
         //Last row minimal value
+        int lastRow = (height - 1) * gridWidth;
         for (int j = 0; j < width; j++) {
-            if (minVal > cost[height - 1][j]) {
-                minVal = cost[height - 1][j];
+            if (minVal > cost[lastRow + j]) {
+                minVal = cost[lastRow + j];
                 minValPosition = j;
             }
         }
 
-        ans.push(minValPosition);
+        ans[height - 1] = minValPosition;
 
         for (int i = height - 1; i > 0; i--) {
 
-            int j = ans.peek();
+            int j = ans[i];
+            int k = (i - 1) * gridWidth + j;
             if (j == 0) {
-                long upR = cost[i - 1][j + 1];
-                long up = cost[i - 1][j];
+                int upR = cost[k + 1];
+                int up = cost[k];
 
                 if (up <= upR) {
-                    ans.push(j);
+                    ans[i - 1] = j;
                 } else {
-                    ans.push(j + 1);
+                    ans[i - 1] = j + 1;
                 }
             } else if (j == width - 1) {
-                long upL = cost[i - 1][j - 1];
-                long up = cost[i - 1][j];
+                int upL = cost[k - 1];
+                int up = cost[k];
 
                 if (up <= upL) {
-                    ans.push(j);
+                    ans[i - 1] = j;
                 } else {
-                    ans.push(j - 1);
+                    ans[i - 1] = j - 1;
                 }
             } else {
-                long upR = cost[i - 1][j + 1];
-                long upL = cost[i - 1][j - 1];
-                long up = cost[i - 1][j];
+                int upR = cost[k + 1];
+                int upL = cost[k - 1];
+                int up = cost[k];
 
                 if (up <= upR && up <= upL) {
-                    ans.push(j);
+                    ans[i - 1] = j;
                 } else if (upR <= up && upR <= upL) {
-                    ans.push(j + 1);
+                    ans[i - 1] = j + 1;
                 } else {
-                    ans.push(j - 1);
+                    ans[i - 1] = j - 1;
                 }
             }
-
-
-            /*if (cost[i][j] == energy[i][j] + cost[i - 1][j] + calcCU(i, j, greyImg)) {
-                ans.push(j);
-            } else if (j > 0 && cost[i][j] == energy[i][j] + cost[i - 1][j - 1] + calcCL(i, j, greyImg)) {
-                ans.push(j - 1);
-            } else {
-                ans.push(j + 1);
-            }*/
         }
 
-
+        phaseEnd(Metrics.Phase.BACKTRACKING, height);
         return ans;
     }
 
     private BufferedImage increaseImageWidth() {
 
-        reduceImageWidth();
-        BufferedImage ans = newEmptyImage(inWidth + numOfSeams, inHeight);
-        boolean[][] newImageMask = new boolean[inHeight][inWidth + numOfSeams];
+        carveSeams(false);
+        PixelBuffer src = workingBuffer();
+        boolean[] mask = toGrid(imageMask);
+        int newWidth = gridWidth + numOfSeams;
+        int[] ans = new int[gridHeight * newWidth];
+        boolean[] newImageMask = new boolean[gridHeight * newWidth];
 
-        for (int row = 0; row < inHeight; row++) {
+        for (int row = 0; row < gridHeight; row++) {
             int duplicatesSeams = 0;
-            for (int col = 0; col < inWidth; col++) {
-                ans.setRGB(col + duplicatesSeams, row, workingImage.getRGB(col, row));
-                newImageMask[row][col + duplicatesSeams] = this.imageMask[row][col];
-                if (isSeam[row][col]) {
+            int offset = row * newWidth;
+            for (int col = 0; col < gridWidth; col++) {
+                int pixel = src.pixels[imageIndex(row, col)];
+                ans[offset + col + duplicatesSeams] = pixel;
+                newImageMask[offset + col + duplicatesSeams] = mask[row * gridWidth + col];
+                if (isSeam[row * gridWidth + col]) {
                     duplicatesSeams++;
-                    ans.setRGB(col + duplicatesSeams, row, workingImage.getRGB(col, row));
-                    newImageMask[row][col + duplicatesSeams] = this.imageMask[row][col];
+                    ans[offset + col + duplicatesSeams] = pixel;
+                    newImageMask[offset + col + duplicatesSeams] = mask[row * gridWidth + col];
                 }
             }
         }
 
-        this.seamCarvingMask = newImageMask;
+        this.maskAfterSeamCarving = fromGrid(newImageMask, newWidth, newWidth);
 
-        return ans;
+        return fromGrid(ans, newWidth, newWidth).toImage(workingImageType);
     }
 
-        return newImg;
-    }
+    // Fills the first width columns of the cost matrix. Every row only depends on the previous one, so with a
+    // for-each pool the cells of a row are split across the pool, and each row waits for the previous to finish.
+    private void fillCostMatrix(int width) {
+        if (cost == null) {
+            cost = new int[gridHeight * gridWidth];
+        }
+        ForkJoinPool pool = getForEachPool();
+        phaseStart(Metrics.Phase.COST);
 
-    private long[][] calculatePixelsEnergy(int height, int width, BufferedImage greyscaleImgInProcess) {
+        if (pool == null || pool.getParallelism() < 2 || width < parallelCostMinWidth) {
+            for (int i = 0; i < gridHeight; i++) {
+                for (int j = 0; j < width; j++) {
+                    cost[i * gridWidth + j] = cellCost(width, i, j);
+                }
+            }
+        } else {
+            int chunkWidth = (width + pool.getParallelism() - 1) / pool.getParallelism();
+            for (int i = 0; i < gridHeight; i++) {
+                pool.invoke(new CostRowChunk(width, i, 0, width, chunkWidth));
+            }
+        }
+        phaseEnd(Metrics.Phase.COST, (long) width * gridHeight);
+    }
 
-        long[][] ans = new long[height][width];
-        long e1, e2, e3;
+    // Computes the cells [from, to) of a cost matrix row, splitting the range in halves down to chunkWidth cells.
+    @SuppressWarnings("serial")
+    private class CostRowChunk extends RecursiveAction {
+        private final int width, row, from, to, chunkWidth;
+
+        CostRowChunk(int width, int row, int from, int to, int chunkWidth) {
+            this.width = width;
+            this.row = row;
+            this.from = from;
+            this.to = to;
+            this.chunkWidth = chunkWidth;
+        }
 
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                int curVal = new Color(greyscaleImgInProcess.getRGB(j, i)).getRed();
-                e1 = (j < width - 1) ?
-                        (Math.abs(curVal - new Color(greyscaleImgInProcess.getRGB(j + 1, i)).getRed())) :
-                        (Math.abs(curVal - new Color(greyscaleImgInProcess.getRGB(j - 1, i)).getRed()));
-                e2 = (i < height - 1) ?
-                        (Math.abs(curVal - new Color(greyscaleImgInProcess.getRGB(j, i + 1)).getRed())) :
-                        Math.abs(curVal - new Color(greyscaleImgInProcess.getRGB(j, i - 1)).getRed());
-                ans[i][j] = e1 + e2;
+        @Override
+        protected void compute() {
+            if (to - from <= chunkWidth) {
+                for (int j = from; j < to; j++) {
+                    cost[row * gridWidth + j] = cellCost(width, row, j);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new CostRowChunk(width, row, from, mid, chunkWidth),
+                        new CostRowChunk(width, row, mid, to, chunkWidth));
             }
         }
-
-        return ans;
     }
 
-    private long[][] calculateCostMatrix(int height, int width, BufferedImage greyscaleImgInProcess, long[][] energyCosts) {
-        long[][] ans = new long[height][width];
+    public BufferedImage showSeams(int seamColorRGB) {
+        beginOperation("show seams");
+        carveSeams(false);
+        PixelBuffer ans = workingBuffer().copy();
 
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                if (seamCarvingMask[i][j]) {
-                    ans[i][j] = Integer.MIN_VALUE;
-                } else {
-                    long e = energyCosts[i][j];
-                    //first row
-                    if (i == 0) {
-                        ans[i][j] = e;
-                    } else {
-                        long top = ans[i - 1][j] + calcCU(i, j, greyscaleImgInProcess);
-                        //first col
-                        if (j == 0) {
-                            ans[i][j] = e + Math.min(top, (ans[i - 1][j + 1] + calcCR(i, j, greyscaleImgInProcess)));
-                        }// last col
-                        else if (j == greyscaleImgInProcess.getWidth() - 1) {
-                            ans[i][j] = e + Math.min(top, (ans[i - 1][j - 1] + calcCL(i, j, greyscaleImgInProcess)));
-                        } else {
-                            ans[i][j] = e + Math.min(top, Math.min((ans[i - 1][j + 1] + calcCR(i, j, greyscaleImgInProcess)), (ans[i - 1][j - 1] + calcCL(i, j, greyscaleImgInProcess))));
-                        }
+        if (numOfSeams > 0) {
+            for (int i = 0; i < gridHeight; i++) {
+                for (int j = 0; j < gridWidth; j++) {
+                    if (isSeam[i * gridWidth + j] == true) {
+                        ans.pixels[imageIndex(i, j)] = seamColorRGB;
                     }
                 }
             }
         }
-        return ans;
-    }
 
-    private long calcCU(int i, int j, BufferedImage greyscaleImage) {
-        if (j == 0 || j == greyscaleImage.getWidth() - 1) {
-            return 255;
-        } else {
-            return Math.abs(new Color(greyscaleImage.getRGB(j + 1, i)).getRed() - new Color(greyscaleImage.getRGB(j - 1, i)).getRed());
-        }
-    }
+        logger.log("Showing " + numOfSeams + " seams done!");
 
-    private long calcCR(int i, int j, BufferedImage greyscaleImage) {
-        long a = (j > 0) ? Math.abs(new Color(greyscaleImage.getRGB(j + 1, i)).getRed() - new Color(greyscaleImage.getRGB(j - 1, i)).getRed()) : 255;
-        long b = Math.abs(new Color(greyscaleImage.getRGB(j + 1, i)).getRed() - new Color(greyscaleImage.getRGB(j, i - 1)).getRed());
-        return a + b;
+        return endOperation(ans.toImage(workingImageType));
     }
 
-    private long calcCL(int i, int j, BufferedImage greyscaleImage) {
-        long a = (j < greyscaleImage.getWidth() - 1) ? Math.abs(new Color(greyscaleImage.getRGB(j + 1, i)).getRed() - new Color(greyscaleImage.getRGB(j - 1, i)).getRed()) : 255;
-        long b = Math.abs(new Color(greyscaleImage.getRGB(j, i - 1)).getRed() - new Color(greyscaleImage.getRGB(j - 1, i)).getRed());
-        return a + b;
+    // Carves the seams of this carver and records the order in which they remove the pixels. The index resizes the
+    // image to any size between the carver's output size and the input size; a carver built with half the input
+    // width (or height, for horizontal seams) covers the whole range seam carving allows.
+    public SeamOrderIndex buildSeamOrderIndex() {
+        beginOperation("seam order index");
+        seamRanks = new int[gridHeight * gridWidth];
+        Arrays.fill(seamRanks, numOfSeams);
+        carveSeams(false);
+
+        SeamOrderIndex ans = new SeamOrderIndex(orientation, inWidth, inHeight, numOfSeams, seamRanks);
+        seamRanks = null;
+
+        logger.log("seam order index of " + numOfSeams + " seams was built.");
+
+        return endOperation(ans);
     }
 
-    public BufferedImage showSeams(int seamColorRGB) {
-        reduceImageWidth();
-        BufferedImage ans = this.duplicateWorkingImage();
+    // The energy of every cell of the carving grid before any seam is removed.
+    public short[] energyMap() {
+        return (planeCache == null) ? computeEnergyGrid() : energyGrid().clone();
+    }
 
-        if (numOfSeams > 0) {
-            for (int i = 0; i < workingImage.getHeight(); i++) {
-                for (int j = 0; j < workingImage.getWidth(); j++) {
-                    if (isSeam[i][j] == true) {
-                        ans.setRGB(j, i, seamColorRGB);
-                    }
-                }
-            }
-        }
+    Orientation orientation() {
+        return orientation;
+    }
 
-        logger.log("Changing greyscale done!");
+    int numOfSeams() {
+        return numOfSeams;
+    }
 
-        return ans;
+    // The settings that change which seams are removed (the incremental mode and the parallel cost threshold do not).
+    String carvingModeKey() {
+        return "batch=" + ((seamBatchSize > 1) ? seamBatchSize + "/" + seamBatchGap : "1") + ";pyramid="
+                + ((pyramidLevels > 0) ? pyramidLevels + "/" + pyramidCorridor : "0");
     }
 
     public boolean[][] getMaskAfterSeamCarving() {
-        return (seamCarvingMask != null) ? seamCarvingMask : this.imageMask;
+        return (maskAfterSeamCarving != null) ? maskAfterSeamCarving : this.imageMask;
     }
 }
\ No newline at end of file
@@ -0,0 +1,346 @@
+package edu.cg;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+// Runs the pointwise operations and the nearest neighbor scaling on image files too large to be decoded in the
+// heap. The output is handed to its writer as an image whose strips (full width, at most stripBytes of pixels
+// each) are only computed when the writer asks for their rows: each strip decodes the source rows it needs
+// through ImageReader region decoding, runs them through ImageProcessor, and is dropped when the writer moves on
+// to the next one. Only one strip of the source and one of the output are held at a time.
+//
+// TIFF and BMP sources are read strip by strip directly. PNG and JPEG readers decode a region by decoding the
+// image from its start, dropping the rows outside the region, so the memory stays bounded but the time grows with
+// the number of strips: give them large strips. The output can be TIFF, PNG or BMP, whose writers ask for their
+// rows one by one; the JPEG writer asks for the whole image at once.
+public class StripProcessor {
+	public static final long DEFAULT_STRIP_BYTES = 64L << 20;
+	public static final List<String> OUTPUT_FORMATS = Arrays.asList("tiff", "tif", "png", "bmp");
+
+	public final Logger logger;
+	private long stripBytes;
+
+	public StripProcessor(Logger logger) {
+		this.logger = logger;
+		stripBytes = DEFAULT_STRIP_BYTES;
+	}
+
+	// The pixels (4 bytes each) a strip of the source or of the output holds at most, if a row fits.
+	public void setStripBytes(long stripBytes) {
+		if (stripBytes <= 0)
+			throw new IllegalArgumentException("The strip size must be positive");
+
+		this.stripBytes = stripBytes;
+	}
+
+	// MARK: Operations
+	public void greyscale(File in, File out, RGBWeights weights) throws IOException {
+		pointwise(in, out, weights, ImageProcessor::greyscale);
+	}
+
+	public void changeHue(File in, File out, RGBWeights weights) throws IOException {
+		pointwise(in, out, weights, ImageProcessor::changeHue);
+	}
+
+	public void nearestNeighbor(File in, File out, int width, int height) throws IOException {
+		try (Source src = new Source(in)) {
+			// every output row takes one source row: a strip of the output needs the source rows in between
+			int srcRows = rowsPerStrip(src.width);
+			int stripHeight = Math.max(1, Math.min(rowsPerStrip(width), (int) ((long) srcRows * height / src.height)));
+
+			write(out, width, height, src.hasAlpha, stripHeight, (fromY, toY) -> {
+				int srcY = ImageProcessor.nearestSourceRow(fromY, src.height, height);
+				int srcToY = ImageProcessor.nearestSourceRow(toY - 1, src.height, height) + 1;
+				BufferedImage strip = src.rows(srcY, srcToY);
+				ImageProcessor ip = new ImageProcessor(logger, strip, new RGBWeights(1, 1, 1), width, toY - fromY);
+				return ip.nearestNeighbor(ip.workingBuffer(), srcY, src.height, width, height, fromY, toY);
+			});
+		}
+	}
+
+	// The width and height of the image, without decoding it.
+	public static Dimension imageSize(File in) throws IOException {
+		try (Source src = new Source(in)) {
+			return new Dimension(src.width, src.height);
+		}
+	}
+
+	@FunctionalInterface
+	private interface BufferOperation {
+		PixelBuffer apply(ImageProcessor ip, PixelBuffer src);
+	}
+
+	private void pointwise(File in, File out, RGBWeights weights, BufferOperation op) throws IOException {
+		try (Source src = new Source(in)) {
+			write(out, src.width, src.height, src.hasAlpha, rowsPerStrip(src.width), (fromY, toY) -> {
+				ImageProcessor ip = new ImageProcessor(logger, src.rows(fromY, toY), weights);
+				return op.apply(ip, ip.workingBuffer());
+			});
+		}
+	}
+
+	private int rowsPerStrip(int width) {
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, stripBytes / (4L * width)));
+	}
+
+	// MARK: Reading
+	private static class Source implements AutoCloseable {
+		final ImageInputStream stream;
+		final ImageReader reader;
+		final int width;
+		final int height;
+		final boolean hasAlpha;
+
+		Source(File in) throws IOException {
+			stream = ImageIO.createImageInputStream(in);
+			if (stream == null)
+				throw new IOException("Can't read " + in);
+
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext()) {
+				stream.close();
+				throw new IOException("Not an image that can be read: " + in);
+			}
+			reader = readers.next();
+			reader.setInput(stream, false, true);
+			width = reader.getWidth(0);
+			height = reader.getHeight(0);
+			hasAlpha = reader.getImageTypes(0).next().getColorModel().hasAlpha();
+		}
+
+		// The rows fromY to toY of the image. Custom types are converted, as ImageProcessor creates its results
+		// with the type of its input.
+		BufferedImage rows(int fromY, int toY) {
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(new Rectangle(0, fromY, width, toY - fromY));
+			try {
+				BufferedImage ans = reader.read(0, param);
+				if (ans.getType() != BufferedImage.TYPE_CUSTOM)
+					return ans;
+				return PixelBuffer.fromImage(ans).toImage(hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.dispose();
+			stream.close();
+		}
+	}
+
+	// MARK: Writing
+	@FunctionalInterface
+	private interface StripFunction {
+		// The rows fromY to toY of the output.
+		PixelBuffer rows(int fromY, int toY);
+	}
+
+	private void write(File out, int width, int height, boolean hasAlpha, int stripHeight, StripFunction strips)
+			throws IOException {
+		String name = out.getName();
+		String format = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+		if (!OUTPUT_FORMATS.contains(format))
+			throw new IllegalArgumentException("Images can only be written strip by strip as " + OUTPUT_FORMATS);
+
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		int type = hasAlpha && !format.equals("bmp") ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		StripImage img = new StripImage(width, height, type, stripHeight, strips);
+
+		out.delete();
+		try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(stream);
+			writer.write(img);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			writer.dispose();
+		}
+
+		logger.log("Wrote " + width + "x" + height + " in " + img.numStrips + " strips.");
+	}
+
+	// An image whose strips are computed on demand, keeping the last one for the rows the writer asks for next.
+	private class StripImage implements RenderedImage {
+		final int width;
+		final int height;
+		final int type;
+		final int stripHeight;
+		final int numStrips;
+		final StripFunction strips;
+		final ColorModel colorModel;
+		final SampleModel sampleModel;
+
+		int stripIndex = -1;
+		WritableRaster strip;
+
+		StripImage(int width, int height, int type, int stripHeight, StripFunction strips) {
+			this.width = width;
+			this.height = height;
+			this.type = type;
+			this.stripHeight = Math.min(stripHeight, height);
+			this.numStrips = (height + this.stripHeight - 1) / this.stripHeight;
+			this.strips = strips;
+			BufferedImage sample = new BufferedImage(1, 1, type);
+			colorModel = sample.getColorModel();
+			sampleModel = colorModel.createCompatibleSampleModel(width, this.stripHeight);
+		}
+
+		// The raster of the strip, in image coordinates.
+		Raster strip(int index) {
+			if (index != stripIndex) {
+				strip = null; // the old strip can go before the new one is made
+				int fromY = index * stripHeight;
+				int toY = Math.min(fromY + stripHeight, height);
+				WritableRaster raster = strips.rows(fromY, toY).toImage(type).getRaster();
+				strip = raster.createWritableTranslatedChild(0, fromY);
+				stripIndex = index;
+				logger.log("Strip " + (index + 1) + " of " + numStrips + " done.");
+			}
+			return strip;
+		}
+
+		@Override
+		public Raster getTile(int tileX, int tileY) {
+			return strip(tileY);
+		}
+
+		@Override
+		public Raster getData(Rectangle rect) {
+			int first = rect.y / stripHeight;
+			int last = (rect.y + rect.height - 1) / stripHeight;
+			if (first == last)
+				return strip(first).createChild(rect.x, rect.y, rect.width, rect.height, rect.x, rect.y, null);
+
+			return copyData(colorModel.createCompatibleWritableRaster(rect.width, rect.height)
+					.createWritableTranslatedChild(rect.x, rect.y));
+		}
+
+		@Override
+		public Raster getData() {
+			return getData(new Rectangle(0, 0, width, height));
+		}
+
+		@Override
+		public WritableRaster copyData(WritableRaster raster) {
+			if (raster == null)
+				raster = colorModel.createCompatibleWritableRaster(width, height);
+
+			Rectangle bounds = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+			for (int y = bounds.y; y < bounds.y + bounds.height;) {
+				Raster s = strip(y / stripHeight);
+				int toY = Math.min(s.getMinY() + s.getHeight(), bounds.y + bounds.height);
+				raster.setRect(s.createChild(bounds.x, y, bounds.width, toY - y, bounds.x, y, null));
+				y = toY;
+			}
+			return raster;
+		}
+
+		@Override
+		public Vector<RenderedImage> getSources() {
+			return null;
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return java.awt.Image.UndefinedProperty;
+		}
+
+		@Override
+		public String[] getPropertyNames() {
+			return null;
+		}
+
+		@Override
+		public ColorModel getColorModel() {
+			return colorModel;
+		}
+
+		@Override
+		public SampleModel getSampleModel() {
+			return sampleModel;
+		}
+
+		@Override
+		public int getWidth() {
+			return width;
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public int getMinX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinY() {
+			return 0;
+		}
+
+		@Override
+		public int getNumXTiles() {
+			return 1;
+		}
+
+		@Override
+		public int getNumYTiles() {
+			return numStrips;
+		}
+
+		@Override
+		public int getMinTileX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinTileY() {
+			return 0;
+		}
+
+		@Override
+		public int getTileWidth() {
+			return width;
+		}
+
+		@Override
+		public int getTileHeight() {
+			return stripHeight;
+		}
+
+		@Override
+		public int getTileGridXOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getTileGridYOffset() {
+			return 0;
+		}
+	}
+}
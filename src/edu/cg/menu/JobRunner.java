@@ -0,0 +1,161 @@
+package edu.cg.menu;
+
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+import edu.cg.ImageProcessor;
+import edu.cg.Logger;
+import edu.cg.Metrics;
+import edu.cg.Pipeline;
+
+// Runs the operations of the menu on a pool of worker threads, so the UI stays responsive while they run and
+// several of them can run at once. Jobs are submitted from the EDT, and their results (or errors) are handed back
+// on the EDT. Cancelling a job cancels the processors it tracks, which stop at their next check (a SeamsCarver
+// checks after every seam); a job that was still queued does not start at all.
+public class JobRunner {
+	@FunctionalInterface
+	public interface Task<T> {
+		T run(Job job);
+	}
+
+	public static class Job {
+		public final String title;
+		private volatile boolean cancelled;
+		private final List<ImageProcessor> processors = new ArrayList<>();
+		private final Metrics.Listener metricsListener;
+
+		private Job(String title, Metrics.Listener metricsListener) {
+			this.title = title;
+			this.metricsListener = metricsListener;
+		}
+
+		// Lets cancel() stop the processor, and has it report its metrics to the runner's listener, if there is one.
+		// Returns the processor.
+		public synchronized <P extends ImageProcessor> P track(P processor) {
+			processors.add(processor);
+			if (metricsListener != null)
+				processor.setMetricsListener(metricsListener);
+			if (cancelled)
+				processor.cancel();
+			return processor;
+		}
+
+		// Has the pipeline report its metrics to the runner's listener, if there is one. A pipeline is not cancelled:
+		// its filters are single passes, and the job checks for cancellation before it starts. Returns the pipeline.
+		public Pipeline track(Pipeline pipeline) {
+			if (metricsListener != null)
+				pipeline.setMetricsListener(metricsListener);
+			return pipeline;
+		}
+
+		public synchronized void cancel() {
+			cancelled = true;
+			for (ImageProcessor processor : processors)
+				processor.cancel();
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public void checkCancelled() {
+			if (cancelled)
+				throw new CancellationException("The job was cancelled");
+		}
+	}
+
+	private final Logger logger;
+	private final Component parent;
+	private final ExecutorService pool;
+	private final Set<Job> running = ConcurrentHashMap.newKeySet();
+	private volatile Metrics.Listener metricsListener;
+
+	public JobRunner(Logger logger, Component parent, int threads) {
+		this.logger = logger;
+		this.parent = parent;
+
+		AtomicInteger count = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "job-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	// The processors of the jobs submitted from now on report their metrics to the listener, on the job's thread.
+	public void setMetricsListener(Metrics.Listener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	// Runs the task in the background and hands its result to onDone on the EDT, unless the job was cancelled.
+	// Whatever the task throws (an OutOfMemoryError on a large image, for one) is reported like an exception.
+	public <T> Job submit(String title, Task<T> task, Consumer<T> onDone) {
+		Job job = new Job(title, metricsListener);
+		running.add(job);
+		logger.log(title + " started.");
+
+		pool.execute(() -> {
+			T ans = null;
+			Throwable error = null;
+			try {
+				job.checkCancelled();
+				ans = task.run(job);
+			} catch (Throwable e) {
+				error = e;
+			} finally {
+				T result = ans;
+				Throwable failure = error;
+				SwingUtilities.invokeLater(() -> done(job, result, failure, onDone));
+			}
+		});
+
+		return job;
+	}
+
+	// On the EDT. The job stays running until its result is handed over, so cancelAll still reaches it until then.
+	private <T> void done(Job job, T ans, Throwable error, Consumer<T> onDone) {
+		try {
+			if (error instanceof CancellationException || (error == null && job.isCancelled()))
+				logger.log(job.title + " cancelled.");
+			else if (error != null)
+				fail(job.title, error);
+			else
+				onDone.accept(ans);
+		} catch (Throwable e) {
+			fail(job.title, e);
+		} finally {
+			running.remove(job);
+		}
+	}
+
+	public void cancelAll() {
+		if (running.isEmpty()) {
+			logger.log("No jobs to cancel.");
+			return;
+		}
+		for (Job job : running)
+			job.cancel();
+	}
+
+	public int runningJobs() {
+		return running.size();
+	}
+
+	private void fail(String title, Throwable e) {
+		String msg = "Error in " + title + "!" + System.lineSeparator()
+				+ ((e.getMessage() != null) ? e.getMessage() : e.toString());
+		logger.log(Logger.Level.ERROR, msg);
+		JOptionPane.showMessageDialog(parent, msg, "Error", JOptionPane.ERROR_MESSAGE);
+	}
+}
@@ -4,16 +4,28 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.GridLayout;
 import java.awt.image.BufferedImage;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Locale;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
 import edu.cg.RGBWeights;
 import edu.cg.ImageProcessor;
 import edu.cg.Logger;
+import edu.cg.Metrics;
+import edu.cg.PixelBuffer;
+import edu.cg.PixelKernels;
+import edu.cg.Pipeline;
+import edu.cg.PlaneCache;
+import edu.cg.SeamCache;
+import edu.cg.SeamOrderIndex;
 import edu.cg.SeamsCarver;
+import edu.cg.SeamsCarver.Orientation;
 import edu.cg.UnimplementedMethodException;
 import edu.cg.menu.components.ActionsController;
 import edu.cg.menu.components.ColorMixer;
@@ -28,6 +40,17 @@ public class MenuWindow extends JFrame implements Logger {
 	private BufferedImage workingImage;
 	private boolean[][] imageMask;
 	private String imageTitle;
+	// The planes the seam carvers derive from the working image, keyed by it. A quarter of the heap by default.
+	private final PlaneCache planeCache = new PlaneCache(Runtime.getRuntime().maxMemory() / 4);
+	// The seam order index of the working image and its mask, for the weights it was built with: a width reduction
+	// it covers is a single pass over the pixels (see resizeWidth). Dropped, and its generation bumped so an index
+	// still being built is not kept, whenever the image or the mask changes.
+	private SeamOrderIndex seamIndex;
+	private RGBWeights seamIndexWeights;
+	private int seamIndexGeneration;
+	// Where the seam order indices are kept across sessions, if anywhere (-Dedu.cg.seamCache=DIR).
+	private final SeamCache seamCache;
+	private final JobRunner jobs;
 
 	// MARK: GUI fields
 	private ImagePicker imagePicker;
@@ -54,6 +77,21 @@ public class MenuWindow extends JFrame implements Logger {
 		scaleSelector = new ScaleSelector();
 		actionsController = new ActionsController(this);
 		logField = new LogField();
+		// -Dedu.cg.log=DEBUG logs every seam, for one
+		logField.setLevel(logLevel(System.getProperty("edu.cg.log")));
+		jobs = new JobRunner(this, this, Math.max(2, Runtime.getRuntime().availableProcessors()));
+		// -Dedu.cg.metrics=true measures every operation: its metrics are logged, and their totals are published
+		// over JMX as edu.cg:type=Metrics,name="menu".
+		if (Boolean.getBoolean("edu.cg.metrics")) {
+			Metrics.Totals totals = new Metrics.Totals();
+			totals.register("menu");
+			log("Pixel kernels: " + PixelKernels.description());
+			jobs.setMetricsListener(metrics -> {
+				log(metrics.toString());
+				totals.operationDone(metrics);
+			});
+		}
+		seamCache = openSeamCache(System.getProperty("edu.cg.seamCache"));
 
 		contentPane.add(imagePicker, BorderLayout.NORTH);
 
@@ -87,17 +125,20 @@ public class MenuWindow extends JFrame implements Logger {
 		log("Application started.");
 	}
 
+	// The operations below read their parameters on the EDT, then run in the background (see run).
+	// The filters go through a Pipeline, which reads the working image without copying it first (images are
+	// replaced, never changed, once they are the working image) and runs the kernels of PixelKernels.
 	public void changeHue() {
-		int outWidth = scaleSelector.width();
-		int outHeight = scaleSelector.height();
-		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-		BufferedImage img = new ImageProcessor(this, duplicateImage(), rgbWeights, outWidth, outHeight).changeHue();
-		present(img, "Change hue");
+		filter("Change hue", new Pipeline(this).changeHue(colorMixer.getRGBWeights()));
 	}
 
 	public void greyscale() {
-		BufferedImage img = new ImageProcessor(this, duplicateImage(), colorMixer.getRGBWeights()).greyscale();
-		present(img, "Grey scale");
+		filter("Grey scale", new Pipeline(this).greyscale(colorMixer.getRGBWeights()));
+	}
+
+	private void filter(String title, Pipeline pipeline) {
+		BufferedImage img = workingImage;
+		run(title, job -> job.track(pipeline).apply(img));
 	}
 
 	public void resize() {
@@ -105,101 +146,147 @@ public class MenuWindow extends JFrame implements Logger {
 		int outHeight = scaleSelector.height();
 		ResizingOperation op = scaleSelector.resizingOperation();
 		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-		BufferedImage img;
+		String title = "Resize: " + op.title + " [" + outWidth + "][" + outHeight + "]";
 		switch (op) {
 		case NEAREST_NEIGHBOR:
-			img = new ImageProcessor(this, duplicateImage(), rgbWeights, outWidth, outHeight).nearestNeighbor();
+			ImageProcessor ip = new ImageProcessor(this, duplicateImage(), rgbWeights, outWidth, outHeight);
+			run(title, job -> job.track(ip).nearestNeighbor());
 			break;
 
 		default: // seam carving
-			SeamsCarver sc = new SeamsCarver(this, duplicateImage(), outWidth, rgbWeights, duplicateMask());
-			img = sc.resize();
-			boolean[][] new_mask = sc.getMaskAfterSeamCarving();
-			img = new SeamsCarver(this, rotateClockwise(img), outHeight, rgbWeights, rotateMaskClockwise(new_mask))
-					.resize();
-			img = rotateCounterclockwise(img);
+			if (outWidth < workingImage.getWidth() && outHeight == workingImage.getHeight()) {
+				resizeWidth(title, outWidth, rgbWeights);
+				break;
+			}
+			if (outWidth <= workingImage.getWidth() && outHeight <= workingImage.getHeight()) {
+				SeamsCarver both = shared(new SeamsCarver(this, duplicateImage(), outWidth, outHeight, rgbWeights,
+						duplicateMask()));
+				run(title, job -> job.track(both).resize());
+				break;
+			}
+			SeamsCarver sc = shared(new SeamsCarver(this, duplicateImage(), outWidth, rgbWeights, duplicateMask()));
+			run(title, job -> {
+				BufferedImage img = job.track(sc).resize();
+				boolean[][] new_mask = sc.getMaskAfterSeamCarving();
+				return job.track(new SeamsCarver(this, img, outHeight, rgbWeights, new_mask, Orientation.HORIZONTAL))
+						.resize();
+			});
 			break;
 		}
+	}
+
+	// Reduces the width from the seam order index, when it covers outWidth. Otherwise the carving run builds an
+	// index down to outWidth on the way (or reads it from the seam cache, which may hold one for more seams), which
+	// serves the later reductions to any width from outWidth up (dragging the width back and forth, for one).
+	private void resizeWidth(String title, int outWidth, RGBWeights rgbWeights) {
+		SeamOrderIndex index = rgbWeights.equals(seamIndexWeights) ? seamIndex : null;
+		if (index != null && outWidth >= index.minSize()) {
+			BufferedImage img = workingImage;
+			run(title, job -> index.resize(img, outWidth));
+			return;
+		}
 
-		present(img, "Resize: " + op.title + " [" + outWidth + "][" + outHeight + "]");
+		SeamsCarver sc = shared(new SeamsCarver(this, duplicateImage(), outWidth, rgbWeights, duplicateMask()));
+		int generation = seamIndexGeneration;
+		run(title, job -> {
+			SeamOrderIndex built = (seamCache != null) ? seamCache.seamOrderIndex(job.track(sc))
+					: job.track(sc).buildSeamOrderIndex();
+			SwingUtilities.invokeLater(() -> keepSeamIndex(built, rgbWeights, generation));
+			return built.resize(sc.workingImage, outWidth);
+		});
+	}
+
+	// On the EDT. Keeps the index unless the image or the mask changed since it was started, or the current one
+	// covers more seams for the same weights.
+	private void keepSeamIndex(SeamOrderIndex index, RGBWeights weights, int generation) {
+		if (generation != seamIndexGeneration)
+			return;
+		if (seamIndex != null && weights.equals(seamIndexWeights) && seamIndex.seams >= index.seams)
+			return;
+
+		seamIndex = index;
+		seamIndexWeights = weights;
+	}
+
+	private void dropSeamIndex() {
+		seamIndex = null;
+		seamIndexWeights = null;
+		++seamIndexGeneration;
+	}
+
+	// Null without a directory, or with one the cache can't use (which is logged, and the menu carves without it).
+	// The level named by -Dedu.cg.log, in any case. INFO when it is not set, or (with a warning) not a level.
+	private Level logLevel(String name) {
+		if (name == null)
+			return Level.INFO;
+
+		try {
+			return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			log(Level.WARNING, "Unknown log level \"" + name + "\" (not one of " + Arrays.toString(Level.values())
+					+ "), logging INFO and above.");
+			return Level.INFO;
+		}
+	}
+
+	private SeamCache openSeamCache(String directory) {
+		if (directory == null)
+			return null;
+
+		try {
+			SeamCache ans = new SeamCache(Paths.get(directory), SeamCache.DEFAULT_MAX_BYTES);
+			log("Seam cache: " + ans.size() + " entries in " + ans.directory);
+			return ans;
+		} catch (UncheckedIOException e) {
+			log(Level.WARNING, e.getMessage());
+			return null;
+		}
 	}
 
 	public void showSeamsVertical() {
 		int outWidth = scaleSelector.width();
 		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-		BufferedImage vertical = new SeamsCarver(this, duplicateImage(), outWidth, rgbWeights, duplicateMask())
-				.showSeams(Color.RED.getRGB());
-		present(vertical, "Show seams vertical");
+		SeamsCarver sc = shared(new SeamsCarver(this, duplicateImage(), outWidth, rgbWeights, duplicateMask()));
+		run("Show seams vertical", job -> job.track(sc).showSeams(Color.RED.getRGB()));
 	}
 
 	public void showSeamsHorizontal() {
 		int outHeight = scaleSelector.height();
 		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-
-		BufferedImage horizontal = new SeamsCarver(this, rotateClockwise(workingImage), outHeight, rgbWeights,
-				rotateMaskClockwise(imageMask)).showSeams(Color.BLACK.getRGB());
-
-		horizontal = rotateCounterclockwise(horizontal);
-
-		present(horizontal, "Show seams horizontal");
+		SeamsCarver sc = shared(new SeamsCarver(this, workingImage, outHeight, rgbWeights, duplicateMask(),
+				Orientation.HORIZONTAL));
+		run("Show seams horizontal", job -> job.track(sc).showSeams(Color.BLACK.getRGB()));
 	}
 
-	private void present(BufferedImage img, String title) {
-		if (img == null)
-			throw new NullPointerException("Can not present a null image.");
-
-		new ImageWindow(img, imageTitle + "; " + title, this).setVisible(true);
+	public void cancelJobs() {
+		jobs.cancelAll();
 	}
 
-	private static BufferedImage rotateClockwise(BufferedImage img) {
-		int imgWidth = img.getWidth();
-		int imgHeight = img.getHeight();
-		BufferedImage ans = new BufferedImage(imgHeight, imgWidth, img.getType());
-		for (int y = 0; y < imgWidth; ++y)
-			for (int x = 0; x < imgHeight; ++x) {
-				int imgX = y;
-				int imgY = imgHeight - 1 - x;
-				ans.setRGB(x, y, img.getRGB(imgX, imgY));
-			}
-
-		return ans;
+	// Runs the operation on the job pool and presents its result, titled after the image it was run on.
+	private void run(String title, JobRunner.Task<BufferedImage> task) {
+		String imageTitle = this.imageTitle;
+		jobs.submit(title, task, img -> present(img, imageTitle, title));
 	}
 
-	private static boolean[][] rotateMaskClockwise(boolean[][] mask) {
-		int height = mask.length;
-		int width = mask[0].length;
-		boolean[][] ans = new boolean[width][height];
-		for (int y = 0; y < height; ++y)
-			for (int x = 0; x < width; ++x) {
-				int X = y;
-				int Y = width - 1 - x;
-				ans[Y][X] = mask[y][x];
-			}
+	// Lets a carver of the working image (or of a copy of it) reuse the planes derived from it by the earlier ones.
+	private SeamsCarver shared(SeamsCarver sc) {
+		sc.setPlaneCache(planeCache, workingImage);
+		return sc;
+	}
 
-		return ans;
+	private void present(BufferedImage img, String title) {
+		present(img, imageTitle, title);
 	}
 
-	private static BufferedImage rotateCounterclockwise(BufferedImage img) {
-		int imgWidth = img.getWidth();
-		int imgHeight = img.getHeight();
-		BufferedImage ans = new BufferedImage(imgHeight, imgWidth, img.getType());
-		for (int y = 0; y < imgWidth; ++y)
-			for (int x = 0; x < imgHeight; ++x) {
-				int imgX = imgWidth - 1 - y;
-				int imgY = x;
-				ans.setRGB(x, y, img.getRGB(imgX, imgY));
-			}
+	private void present(BufferedImage img, String imageTitle, String title) {
+		if (img == null)
+			throw new NullPointerException("Can not present a null image.");
 
-		return ans;
+		new ImageWindow(img, imageTitle + "; " + title, this).setVisible(true);
 	}
 
 	private static BufferedImage duplicateImage(BufferedImage img) {
-		BufferedImage dup = new BufferedImage(img.getWidth(), img.getHeight(), img.getType());
-		for (int y = 0; y < dup.getHeight(); ++y)
-			for (int x = 0; x < dup.getWidth(); ++x)
-				dup.setRGB(x, y, img.getRGB(x, y));
-
-		return dup;
+		return PixelBuffer.fromImage(img).toImage(img.getType());
 	}
 
 	private static boolean[][] duplicateMask(boolean[][] mask) {
@@ -220,6 +307,8 @@ public class MenuWindow extends JFrame implements Logger {
 
 	public void setWorkingImage(BufferedImage workingImage, String imageTitle) {
 		this.imageTitle = imageTitle;
+		planeCache.invalidate(this.workingImage);
+		dropSeamIndex();
 		this.workingImage = workingImage;
 		log("Image: " + imageTitle + " has been selected as working image.");
 		scaleSelector.setWidth(workingImage.getWidth());
@@ -233,13 +322,25 @@ public class MenuWindow extends JFrame implements Logger {
 	}
 
 	// MARK: Logger
+	// The log field queues the lines of any thread without blocking, and appends them on the EDT.
 	@Override
 	public void log(String s) {
 		logField.log(s);
 	}
 
+	@Override
+	public boolean isEnabled(Level level) {
+		return logField.isEnabled(level);
+	}
+
+	@Override
+	public void log(Level level, String s) {
+		logField.log(level, s);
+	}
+
 	public void setImageMask(boolean[][] srcMask) {
 		imageMask = duplicateMask(srcMask);
+		dropSeamIndex();
 	}
 
 	public void removeObjectFromImage(boolean[][] srcMask) {
@@ -247,15 +348,17 @@ public class MenuWindow extends JFrame implements Logger {
 		boolean[][] curMask = duplicateMask(srcMask);
 		int originalWidth = this.workingImage.getWidth();
 		int numOfSeams = Math.min((originalWidth/3)-1,numOfTrueInRow(curMask));
-		BufferedImage curImg = this.duplicateImage();
 		RGBWeights weights = colorMixer.getRGBWeights();
-		SeamsCarver sc = new SeamsCarver(this, curImg, originalWidth - numOfSeams, weights,curMask);
-		curImg = sc.resize();
-		curMask = duplicateMask(sc.getMaskAfterSeamCarving());
-		sc = new SeamsCarver(this,curImg,originalWidth,weights,curMask);
-		curImg = sc.resize();
-		curMask = duplicateMask(sc.getMaskAfterSeamCarving());
-		present(curImg,"pre");
+		SeamsCarver first = shared(new SeamsCarver(this, this.duplicateImage(), originalWidth - numOfSeams, weights,curMask));
+		String imageTitle = this.imageTitle;
+		jobs.submit("Object removal", job -> {
+			BufferedImage curImg = job.track(first).resize();
+			boolean[][] mask = duplicateMask(first.getMaskAfterSeamCarving());
+			SeamsCarver sc = job.track(new SeamsCarver(this,curImg,originalWidth,weights,mask));
+			curImg = sc.resize();
+			mask = duplicateMask(sc.getMaskAfterSeamCarving());
+			return curImg;
+		}, curImg -> present(curImg, imageTitle, "pre"));
 
 		// TODO: After completing the implementation - make sure you present the result.
 		// Just uncomment the following line, and replace 'result' with your
@@ -49,6 +49,7 @@ public class ActionsController extends JPanel {
 		
 		panel2.add(addAndGetButton("Show seams - vertical", menuWindow::showSeamsVertical));
 		panel2.add(addAndGetButton("Show seams - horizontal", menuWindow::showSeamsHorizontal));
+		panel2.add(addAndGetButton("Cancel jobs", menuWindow::cancelJobs));
 	}
 	
 	private JButton addAndGetButton(String btnName, Runnable action) {
@@ -58,7 +59,7 @@ public class ActionsController extends JPanel {
 				action.run();
 			} catch (Exception ex) {
 				String msg = "Error in " + btnName + "!" + System.lineSeparator() + ex.getMessage();
-				logger.log(msg);
+				logger.log(Logger.Level.ERROR, msg);
 				JOptionPane.showMessageDialog(mainComponent, msg, "Error", JOptionPane.ERROR_MESSAGE);
 			}
 		});
@@ -2,18 +2,49 @@ package edu.cg.menu.components;
 
 import java.awt.BorderLayout;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.EtchedBorder;
+import javax.swing.text.BadLocationException;
 
 import edu.cg.Logger;
 
+// Logging never blocks: from any thread, a message is stamped with its time and queued in a LogRing, and the
+// queued messages are appended to the text area together on the EDT, at most DRAIN_DELAY milliseconds later. When
+// the queue is full, a message below WARNING is dropped and counted instead. Only the last maxLines lines are kept.
 @SuppressWarnings("serial")
 public class LogField extends JPanel implements Logger {
+	public static final int QUEUE_CAPACITY = 4096;
+	public static final int DRAIN_DELAY = 50;
+	public static final int DEFAULT_MAX_LINES = 5000;
+
+	private static class Message {
+		final long time;
+		final Level level;
+		final String text;
+
+		Message(long time, Level level, String text) {
+			this.time = time;
+			this.level = level;
+			this.text = text;
+		}
+	}
+
 	private JTextArea txtLog;
+	private final LogRing<Message> queue = new LogRing<>(QUEUE_CAPACITY);
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	private final AtomicLong dropped = new AtomicLong();
+	private final Timer drainTimer;
+	private volatile Level level = Level.INFO;
+	private int maxLines = DEFAULT_MAX_LINES;
+	private final Calendar cal = Calendar.getInstance(); // the EDT's
 	
 	
 	public LogField() {
@@ -30,22 +61,99 @@ public class LogField extends JPanel implements Logger {
 		txtLog.setLineWrap(true);
 		JScrollPane scrollLog = new JScrollPane(txtLog);
 		add(scrollLog);
+
+		drainTimer = new Timer(DRAIN_DELAY, e -> drain(null));
+		drainTimer.setRepeats(false);
+	}
+
+	// The least important level logged.
+	public void setLevel(Level level) {
+		this.level = level;
+	}
+
+	// The lines of scrollback kept. On the EDT.
+	public void setMaxLines(int maxLines) {
+		if (maxLines <= 0)
+			throw new IllegalArgumentException("The scrollback must be positive");
+
+		this.maxLines = maxLines;
+		trim();
 	}
 
 	@Override
-	public synchronized void log(String s) {
-		if(s == null)
-			s = "null";
-		
-		Calendar cal = Calendar.getInstance();
+	public boolean isEnabled(Level level) {
+		return level.compareTo(this.level) >= 0;
+	}
+
+	@Override
+	public void log(String s) {
+		log(Level.INFO, s);
+	}
+
+	@Override
+	public void log(Level level, String s) {
+		if (!isEnabled(level))
+			return;
+
+		Message msg = new Message(System.currentTimeMillis(), level, (s == null) ? "null" : s);
+		if (!queue.offer(msg)) {
+			// warnings and errors are not dropped: they are appended after the queued messages instead
+			if (level.compareTo(Level.WARNING) >= 0) {
+				SwingUtilities.invokeLater(() -> drain(msg));
+				return;
+			}
+			dropped.incrementAndGet();
+		}
+		if (drainScheduled.compareAndSet(false, true))
+			drainTimer.restart();
+	}
+
+	// Appends everything queued so far, and then last (if not null), in one go. Messages queued while it runs
+	// schedule the next drain.
+	private void drain(Message last) {
+		drainScheduled.set(false);
+
+		StringBuilder batch = new StringBuilder();
+		long lost = dropped.getAndSet(0);
+		if (lost > 0)
+			append(batch, new Message(System.currentTimeMillis(), Level.WARNING,
+					lost + " messages were dropped, as they came faster than they could be shown."));
+
+		for (Message msg = queue.poll(); msg != null; msg = queue.poll())
+			append(batch, msg);
+		if (last != null)
+			append(batch, last);
+
+		if (batch.length() > 0) {
+			txtLog.append(batch.toString());
+			trim();
+		}
+	}
+
+	private void append(StringBuilder batch, Message msg) {
+		cal.setTimeInMillis(msg.time);
 		String hh = convertTime(cal.get(Calendar.HOUR_OF_DAY));
 		String mm = convertTime(cal.get(Calendar.MINUTE));
 		String ss = convertTime(cal.get(Calendar.SECOND));
-		String time = "[" + hh + ":" + mm + ":" + ss + "] ~ ";
-		String msg = time + s + System.lineSeparator();
-		txtLog.append(msg);
+		batch.append('[').append(hh).append(':').append(mm).append(':').append(ss).append("] ~ ");
+		if (msg.level != Level.INFO)
+			batch.append(msg.level).append(": ");
+		batch.append(msg.text).append(System.lineSeparator());
 	}
-	
+
+	// Drops the oldest lines beyond maxLines (the text ends with a line break, so its last line is empty).
+	private void trim() {
+		int excess = txtLog.getLineCount() - 1 - maxLines;
+		if (excess <= 0)
+			return;
+
+		try {
+			txtLog.replaceRange("", 0, txtLog.getLineStartOffset(excess));
+		} catch (BadLocationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	private static String convertTime(int t) {
 		return (t < 10 ? "0" : "") + t;
 	}
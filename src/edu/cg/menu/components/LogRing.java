@@ -0,0 +1,66 @@
+package edu.cg.menu.components;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A bounded queue that any number of threads offer to without locks, and a single thread polls (Vyukov's bounded
+// queue). Every slot carries a sequence number: the position it can be written at next, or that position plus one
+// once it was written. A producer claims a position by a compare and set on the tail, so producers never wait for
+// each other or for the consumer; when the queue is full, offer fails instead of waiting.
+public class LogRing<T> {
+	private final int mask;
+	private final AtomicReferenceArray<T> items;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private long head; // the consumer's only
+
+	// The capacity is rounded up to a power of two.
+	public LogRing(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("The capacity must be positive");
+
+		int size = Math.max(1, Integer.highestOneBit(capacity - 1) << 1);
+		mask = size - 1;
+		items = new AtomicReferenceArray<>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i)
+			sequences.set(i, i);
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+	// Returns false, without blocking, when the queue is full.
+	public boolean offer(T item) {
+		while (true) {
+			long pos = tail.get();
+			int slot = (int) pos & mask;
+			long diff = sequences.get(slot) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					items.lazySet(slot, item);
+					sequences.set(slot, pos + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				return false;
+			}
+			// else another producer took the slot: try the next position
+		}
+	}
+
+	// The oldest item, or null if there is none. Only one thread may poll.
+	public T poll() {
+		int slot = (int) head & mask;
+		if (sequences.get(slot) != head + 1)
+			return null;
+
+		T ans = items.get(slot);
+		items.lazySet(slot, null);
+		sequences.set(slot, head + mask + 1);
+		++head;
+		return ans;
+	}
+}
@@ -0,0 +1,88 @@
+package edu.cg;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+// Every greyscale of the application against ImageProcessor.greyscaleOperator: the intensities of
+// PixelKernels (with and without the reciprocal), the kernels PixelKernels picked and the energy of SeamsCarver.
+public class GreyscaleTest {
+	private static final List<RGBWeights> WEIGHTS = weights();
+
+	@Test
+	public void intensitiesMatchTheOperator() {
+		int[] src = PixelKernels.probes(4000, 1);
+		for (RGBWeights weights : WEIGHTS) {
+			IntUnaryOperator op = ImageProcessor.greyscaleOperator(weights);
+			byte[] dst = new byte[src.length + 4];
+			PixelKernels.intensities(weights, src, 3, src.length - 5, dst, 7);
+			for (int i = 3; i < src.length - 5; ++i)
+				assertEquals(op.applyAsInt(src[i]) & 0xFF, dst[i + 4] & 0xFF, weights.toString() + " at " + i);
+			assertEquals(0, dst[6]);
+			assertEquals(0, dst[src.length + 2]);
+		}
+	}
+
+	@Test
+	public void kernelsMatchTheOperator() {
+		int[] src = PixelKernels.probes(4099, 2);
+		for (RGBWeights weights : WEIGHTS) {
+			IntUnaryOperator op = ImageProcessor.greyscaleOperator(weights);
+			int[] dst = new int[src.length];
+			PixelKernels.greyscale(weights).apply(src, dst, 0, src.length);
+			for (int i = 0; i < src.length; ++i)
+				assertEquals(op.applyAsInt(src[i]), dst[i], weights.toString() + " at " + i);
+		}
+	}
+
+	@Test
+	public void zeroWeights() {
+		RGBWeights zero = new RGBWeights(0, 0, 0);
+		int[] src = PixelKernels.probes(1024, 3);
+		assertThrows(ArithmeticException.class, () -> ImageProcessor.greyscaleOperator(zero).applyAsInt(src[0]));
+		assertThrows(ArithmeticException.class, () -> PixelKernels.intensities(zero, src, 0, 16, new byte[16], 0));
+		assertThrows(ArithmeticException.class, () -> PixelKernels.greyscale(zero).apply(src, new int[16], 0, 16));
+	}
+
+	@Test
+	public void carverEnergyUsesTheSameIntensities() {
+		int width = 67;
+		int height = 23;
+		int[] src = PixelKernels.probes(width * height, 4);
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		img.setRGB(0, 0, width, height, src, 0, width);
+
+		for (RGBWeights weights : WEIGHTS) {
+			IntUnaryOperator op = ImageProcessor.greyscaleOperator(weights);
+			int[] grey = Arrays.stream(src).map(c -> op.applyAsInt(c) & 0xFF).toArray();
+			short[] expected = new short[width * height];
+			for (int i = 0; i < height; ++i) {
+				for (int j = 0; j < width; ++j) {
+					int k = i * width + j;
+					int e1 = Math.abs(grey[k] - grey[(j < width - 1) ? k + 1 : k - 1]);
+					int e2 = Math.abs(grey[k] - grey[(i < height - 1) ? k + width : k - width]);
+					expected[k] = (short) (e1 + e2);
+				}
+			}
+
+			SeamsCarver sc = new SeamsCarver(s -> {
+			}, img, width - 5, weights, new boolean[height][width]);
+			assertArrayEquals(expected, sc.energyMap(), weights.toString());
+		}
+	}
+
+	// The weights PixelKernels checks the kernels with, and those around the largest sum the reciprocal is used for.
+	private static List<RGBWeights> weights() {
+		List<RGBWeights> ans = new ArrayList<>(Arrays.asList(PixelKernels.probeWeights()));
+		ans.addAll(List.of(new RGBWeights(1365, 1365, 1365), new RGBWeights(1366, 1365, 1365)));
+		return ans;
+	}
+}
@@ -0,0 +1,100 @@
+package edu.cg;
+
+import static edu.cg.TestImages.QUIET;
+import static edu.cg.TestImages.assertSamePixels;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+// The fused passes of Pipeline against the same operations run one after the other through ImageProcessor, on
+// every image type and on images larger than a chunk of the fused kernels, sequentially and on a pool.
+public class PipelineTest {
+	private static final RGBWeights HUE = new RGBWeights(37, 59, 11);
+	private static final RGBWeights GREY = new RGBWeights(2, 5, 1);
+	private static final IntUnaryOperator INVERT = c -> c ^ 0x00FFFFFF;
+	private static final int[][] SIZES = { { 40, 30 }, { 131, 67 }, { 1, 1 } };
+
+	@Test
+	public void filtersMatchImageProcessor() {
+		for (BufferedImage img : images()) {
+			String what = img.getWidth() + "x" + img.getHeight() + " type " + img.getType();
+			assertSamePixels(new ImageProcessor(QUIET, img, HUE).changeHue(),
+					new Pipeline(QUIET).changeHue(HUE).apply(img), what + ", hue");
+			assertSamePixels(new ImageProcessor(QUIET, img, GREY).greyscale(),
+					new Pipeline(QUIET).greyscale(GREY).apply(img), what + ", greyscale");
+		}
+	}
+
+	@Test
+	public void fusedPassesMatchSequentialCalls() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (BufferedImage img : images()) {
+				String what = img.getWidth() + "x" + img.getHeight() + " type " + img.getType();
+				int width = img.getWidth() * 2 / 3 + 1;
+				int height = img.getHeight() + 5;
+
+				BufferedImage expected = new ImageProcessor(QUIET, img, HUE).changeHue();
+				expected = new ImageProcessor(QUIET, expected, GREY).greyscale();
+				expected = new ImageProcessor(QUIET, expected, GREY, width, height).nearestNeighbor();
+				PixelBuffer inverted = new ImageProcessor(QUIET, expected, GREY).map(PixelBuffer.fromImage(expected),
+						INVERT);
+				expected = new ImageProcessor(QUIET, inverted.toImage(img.getType()), HUE).changeHue();
+
+				Pipeline pipeline = new Pipeline(QUIET).changeHue(HUE).greyscale(GREY).nearestNeighbor(width, height)
+						.pointwise("invert", INVERT).changeHue(HUE);
+				assertSamePixels(expected, pipeline.apply(img), what);
+				pipeline.setForEachPool(pool);
+				assertSamePixels(expected, pipeline.apply(img), what + ", on a pool");
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	// Applying a pipeline to a buffer gives a new buffer and leaves the source as it was, fused passes or not.
+	@Test
+	public void sourceBufferIsNotChanged() {
+		PixelBuffer src = PixelBuffer.fromImage(TestImages.image(131, 67, BufferedImage.TYPE_INT_ARGB, 5, 0));
+		int[] before = src.pixels.clone();
+
+		PixelBuffer grey = new Pipeline(QUIET).changeHue(HUE).greyscale(GREY).apply(src);
+		assertArrayEquals(before, src.pixels);
+		assertArrayEquals(new ImageProcessor(QUIET, src.asImage(), GREY).greyscale(
+				new ImageProcessor(QUIET, src.asImage(), HUE).changeHue(src)).pixels, grey.pixels);
+
+		PixelBuffer same = new Pipeline(QUIET).apply(src);
+		assertNotSame(src, same);
+		assertArrayEquals(before, same.pixels);
+	}
+
+	@Test
+	public void measuredAsOneOperation() {
+		List<Metrics> done = new ArrayList<>();
+		BufferedImage img = TestImages.image(40, 30, BufferedImage.TYPE_INT_RGB, 6, 1);
+		Pipeline pipeline = new Pipeline(QUIET).changeHue(HUE).greyscale(GREY).nearestNeighbor(20, 10);
+		pipeline.setMetricsListener(done::add);
+		pipeline.apply(img);
+
+		assertEquals(1, done.size());
+		assertEquals("hue + greyscale + nearest neighbor", done.get(0).operation);
+		assertEquals(40, done.get(0).width);
+		assertEquals(30, done.get(0).height);
+	}
+
+	private static List<BufferedImage> images() {
+		List<BufferedImage> ans = new ArrayList<>();
+		for (int type : TestImages.TYPES)
+			for (int[] size : SIZES)
+				ans.add(TestImages.image(size[0], size[1], type, size[0] + type, 0));
+		return ans;
+	}
+}
@@ -0,0 +1,179 @@
+package edu.cg;
+
+import static edu.cg.TestImages.QUIET;
+import static edu.cg.TestImages.assertSamePixels;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.cg.SeamsCarver.Orientation;
+
+public class SeamCacheTest {
+	private static final int WIDTH = 40;
+	private static final int HEIGHT = 30;
+	// The size of an entry of a WIDTH x HEIGHT image: the header, then a char and a short per cell.
+	private static final long ENTRY_BYTES = 6 * 4 + WIDTH * HEIGHT * 4;
+	private static final RGBWeights WEIGHTS = new RGBWeights(1, 1, 1);
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void missThenHit() {
+		SeamCache cache = new SeamCache(dir, SeamCache.DEFAULT_MAX_BYTES);
+		BufferedImage img = image(1);
+
+		SeamOrderIndex built = cache.seamOrderIndex(carver(img, 25));
+		assertEquals(0, cache.hits());
+		assertEquals(1, cache.misses());
+		assertEquals(1, cache.size());
+		assertEquals(ENTRY_BYTES, cache.sizeInBytes());
+
+		SeamOrderIndex read = cache.seamOrderIndex(carver(img, 25));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+		assertArrayEquals(built.ranks, read.ranks);
+		assertArrayEquals(carver(img, 25).energyMap(), cache.energyMap(carver(img, 25)));
+	}
+
+	@Test
+	public void resizesLikeTheCarver() {
+		SeamCache cache = new SeamCache(dir, SeamCache.DEFAULT_MAX_BYTES);
+		BufferedImage img = image(2);
+		cache.seamOrderIndex(carver(img, 20));
+
+		for (int outWidth = 20; outWidth <= WIDTH; outWidth += 5) {
+			SeamOrderIndex index = cache.seamOrderIndex(carver(img, outWidth));
+			assertSamePixels(carver(img, outWidth).resize(), index.resize(img, outWidth), "width " + outWidth);
+		}
+		assertEquals(1, cache.misses());
+
+		SeamsCarver horizontal = new SeamsCarver(QUIET, img, 18, WEIGHTS, new boolean[HEIGHT][WIDTH],
+				Orientation.HORIZONTAL);
+		assertSamePixels(new SeamsCarver(QUIET, img, 18, WEIGHTS, new boolean[HEIGHT][WIDTH], Orientation.HORIZONTAL)
+				.resize(), cache.seamOrderIndex(horizontal).resize(img, 18), "height 18");
+		assertEquals(2, cache.misses());
+	}
+
+	@Test
+	public void keyedByEverythingTheSeamsDependOn() {
+		SeamCache cache = new SeamCache(dir, SeamCache.DEFAULT_MAX_BYTES);
+		BufferedImage img = image(3);
+		boolean[][] mask = new boolean[HEIGHT][WIDTH];
+		mask[10][10] = true;
+
+		cache.seamOrderIndex(carver(img, 30));
+		cache.seamOrderIndex(new SeamsCarver(QUIET, img, 30, new RGBWeights(1, 2, 3), new boolean[HEIGHT][WIDTH]));
+		cache.seamOrderIndex(new SeamsCarver(QUIET, img, 30, WEIGHTS, mask));
+		cache.seamOrderIndex(carver(image(4), 30));
+		assertEquals(4, cache.misses());
+		assertEquals(0, cache.hits());
+		assertEquals(4, cache.size());
+	}
+
+	@Test
+	public void moreSeamsReplaceTheEntry() {
+		SeamCache cache = new SeamCache(dir, SeamCache.DEFAULT_MAX_BYTES);
+		BufferedImage img = image(5);
+
+		cache.seamOrderIndex(carver(img, 30));
+		assertEquals(10, cache.seamOrderIndex(carver(img, 35)).seams);
+		assertEquals(1, cache.hits());
+
+		assertEquals(15, cache.seamOrderIndex(carver(img, 25)).seams);
+		assertEquals(2, cache.misses());
+		assertEquals(1, cache.size());
+		assertEquals(15, cache.seamOrderIndex(carver(img, 30)).seams);
+	}
+
+	@Test
+	public void reopened() {
+		BufferedImage img = image(6);
+		SeamOrderIndex built = new SeamCache(dir, SeamCache.DEFAULT_MAX_BYTES).seamOrderIndex(carver(img, 25));
+
+		SeamCache reopened = new SeamCache(dir, SeamCache.DEFAULT_MAX_BYTES);
+		assertEquals(1, reopened.size());
+		assertEquals(ENTRY_BYTES, reopened.sizeInBytes());
+		assertArrayEquals(built.ranks, reopened.seamOrderIndex(carver(img, 25)).ranks);
+		assertEquals(1, reopened.hits());
+		assertEquals(0, reopened.misses());
+	}
+
+	@Test
+	public void damagedEntriesAreRebuilt() throws IOException {
+		SeamCache cache = new SeamCache(dir, SeamCache.DEFAULT_MAX_BYTES);
+		BufferedImage img = image(7);
+		SeamOrderIndex built = cache.seamOrderIndex(carver(img, 25));
+
+		Path file = dir.resolve(SeamCache.key(carver(img, 25)) + ".seams");
+		Files.write(file, new byte[] { 1, 2, 3 });
+		assertArrayEquals(built.ranks, cache.seamOrderIndex(carver(img, 25)).ranks);
+		assertEquals(2, cache.misses());
+		assertEquals(ENTRY_BYTES, Files.size(file));
+		assertEquals(ENTRY_BYTES, cache.sizeInBytes());
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsed() {
+		SeamCache cache = new SeamCache(dir, 2 * ENTRY_BYTES);
+		BufferedImage a = image(8);
+		BufferedImage b = image(9);
+
+		cache.seamOrderIndex(carver(a, 30));
+		cache.seamOrderIndex(carver(b, 30));
+		cache.seamOrderIndex(carver(a, 30));
+		assertEquals(0, cache.evictions());
+
+		cache.seamOrderIndex(carver(image(10), 30));
+		assertEquals(1, cache.evictions());
+		assertEquals(2, cache.size());
+		assertEquals(2 * ENTRY_BYTES, cache.sizeInBytes());
+		assertFalse(Files.exists(dir.resolve(SeamCache.key(carver(b, 30)) + ".seams")));
+		assertTrue(Files.exists(dir.resolve(SeamCache.key(carver(a, 30)) + ".seams")));
+
+		cache.seamOrderIndex(carver(a, 30));
+		assertEquals(2, cache.hits());
+	}
+
+	@Test
+	public void reopenedWithASmallerBudget() {
+		SeamCache cache = new SeamCache(dir, SeamCache.DEFAULT_MAX_BYTES);
+		for (int seed = 11; seed < 14; ++seed)
+			cache.seamOrderIndex(carver(image(seed), 30));
+
+		SeamCache smaller = new SeamCache(dir, ENTRY_BYTES);
+		assertEquals(2, smaller.evictions());
+		assertEquals(1, smaller.size());
+		assertEquals(ENTRY_BYTES, smaller.sizeInBytes());
+	}
+
+	// MARK: Helpers
+	private static SeamsCarver carver(BufferedImage img, int outWidth) {
+		return new SeamsCarver(QUIET, img, outWidth, WEIGHTS, new boolean[img.getHeight()][img.getWidth()]);
+	}
+
+	// Smooth gradients with noise, so the seams are neither all alike nor all ties.
+	private static BufferedImage image(long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		BufferedImage ans = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < HEIGHT; ++y) {
+			for (int x = 0; x < WIDTH; ++x) {
+				int r = (x * 6 + random.nextInt(40)) & 0xFF;
+				int g = (y * 8 + random.nextInt(40)) & 0xFF;
+				int b = random.nextInt(256);
+				ans.setRGB(x, y, (r << 16) | (g << 8) | b);
+			}
+		}
+		return ans;
+	}
+}
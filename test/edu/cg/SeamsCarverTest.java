@@ -0,0 +1,264 @@
+package edu.cg;
+
+import static edu.cg.TestImages.QUIET;
+import static edu.cg.TestImages.assertSameMask;
+import static edu.cg.TestImages.assertSamePixels;
+import static edu.cg.TestImages.copy;
+import static edu.cg.TestImages.transform;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import edu.cg.SeamsCarver.Orientation;
+
+// The ways SeamsCarver has of carving the same seams against each other: the incremental updates against full
+// recomputations, horizontal seams against vertical ones on the rotated image, and the seam order index against
+// carving to every size it covers. Every check runs on every image type, on noise, gradients and flat tiles, on
+// wide, tall and tiny images, with and without a mask.
+public class SeamsCarverTest {
+	private static final RGBWeights WEIGHTS = new RGBWeights(2, 5, 1);
+	private static final int[][] SIZES = { { 40, 30 }, { 61, 17 }, { 9, 23 } };
+
+	private static class Case {
+		final String name;
+		final BufferedImage image;
+		final boolean[][] mask;
+
+		Case(String name, BufferedImage image, boolean[][] mask) {
+			this.name = name;
+			this.image = image;
+			this.mask = mask;
+		}
+
+		int width() {
+			return image.getWidth();
+		}
+
+		int height() {
+			return image.getHeight();
+		}
+	}
+
+	@Test
+	public void incrementalMatchesFull() {
+		for (Case c : cases()) {
+			for (int outWidth : outSizes(c.width())) {
+				String what = c.name + " to width " + outWidth;
+				SeamsCarver incremental = carver(c, outWidth, Orientation.VERTICAL);
+				SeamsCarver full = carver(c, outWidth, Orientation.VERTICAL);
+				full.setIncrementalMode(false);
+				assertSamePixels(full.resize(), incremental.resize(), what);
+				assertSameMask(full.getMaskAfterSeamCarving(), incremental.getMaskAfterSeamCarving(), what);
+
+				incremental = carver(c, outWidth, Orientation.VERTICAL);
+				full = carver(c, outWidth, Orientation.VERTICAL);
+				full.setIncrementalMode(false);
+				assertSamePixels(full.showSeams(Color.RED.getRGB()), incremental.showSeams(Color.RED.getRGB()), what);
+			}
+		}
+	}
+
+	// Horizontal seams are the vertical seams of the image rotated clockwise (and its mask with it), rotated back.
+	@Test
+	public void horizontalMatchesRotatedVertical() {
+		for (Case c : cases()) {
+			BufferedImage rotated = transform(c.image, ImageTransform.ROTATE_90);
+			boolean[][] rotatedMask = ImageTransform.ROTATE_90.apply(c.mask);
+			Case turned = new Case(c.name + " rotated", rotated, rotatedMask);
+			for (int outHeight : outSizes(c.height())) {
+				String what = c.name + " to height " + outHeight;
+				SeamsCarver horizontal = carver(c, outHeight, Orientation.HORIZONTAL);
+				SeamsCarver vertical = carver(turned, outHeight, Orientation.VERTICAL);
+				assertSamePixels(transform(vertical.resize(), ImageTransform.ROTATE_270), horizontal.resize(), what);
+				assertSameMask(ImageTransform.ROTATE_270.apply(vertical.getMaskAfterSeamCarving()),
+						horizontal.getMaskAfterSeamCarving(), what);
+
+				horizontal = carver(c, outHeight, Orientation.HORIZONTAL);
+				vertical = carver(turned, outHeight, Orientation.VERTICAL);
+				assertSamePixels(transform(vertical.showSeams(Color.BLACK.getRGB()), ImageTransform.ROTATE_270),
+						horizontal.showSeams(Color.BLACK.getRGB()), what);
+			}
+		}
+	}
+
+	@Test
+	public void seamOrderIndexMatchesResize() {
+		for (Case c : cases()) {
+			for (Orientation orientation : Orientation.values()) {
+				int size = (orientation == Orientation.VERTICAL) ? c.width() : c.height();
+				SeamOrderIndex index = carver(c, size - size / 2, orientation).buildSeamOrderIndex();
+				for (int k = size - size / 2; k <= size; ++k) {
+					String what = c.name + ", " + orientation + " to " + k;
+					SeamsCarver sc = carver(c, k, orientation);
+					assertSamePixels(sc.resize(), index.resize(c.image, k), what);
+					assertSameMask(sc.getMaskAfterSeamCarving(), index.resize(c.mask, k), what);
+				}
+			}
+		}
+	}
+
+	// MARK: Two dimensional mode
+	// With one side left as it is, the greedy order has only one kind of seam to pick from.
+	@Test
+	public void twoDimensionalWithOneSideKeptMatchesOneDimensional() {
+		for (Case c : cases()) {
+			for (Orientation orientation : Orientation.values()) {
+				boolean vertical = orientation == Orientation.VERTICAL;
+				int size = vertical ? c.width() : c.height();
+				for (int outSize : new int[] { size - size / 2, size - 3, size - 1, size }) {
+					String what = c.name + ", " + orientation + " to " + outSize;
+					SeamsCarver both = new SeamsCarver(QUIET, c.image, vertical ? outSize : c.width(),
+							vertical ? c.height() : outSize, WEIGHTS, copy(c.mask));
+					SeamsCarver one = carver(c, outSize, orientation);
+					assertSamePixels(one.resize(), both.resize(), what);
+					assertSameMask(one.getMaskAfterSeamCarving(), both.getMaskAfterSeamCarving(), what);
+				}
+			}
+		}
+	}
+
+	// MARK: Batch mode
+	@Test
+	public void batchOfOneMatchesExact() {
+		for (Case c : cases()) {
+			for (int outWidth : outSizes(c.width())) {
+				String what = c.name + " to width " + outWidth;
+				SeamsCarver batch = carver(c, outWidth, Orientation.VERTICAL);
+				batch.setSeamBatchSize(1);
+				SeamsCarver exact = carver(c, outWidth, Orientation.VERTICAL);
+				assertSamePixels(exact.resize(), batch.resize(), what);
+				assertSameMask(exact.getMaskAfterSeamCarving(), batch.getMaskAfterSeamCarving(), what);
+			}
+		}
+	}
+
+	// The bound setSeamBatchSize documents: the first seam of every batch is the seam the exact mode removes from the
+	// image the batch starts from, and the seams of a batch are at least the gap apart in every row of that image.
+	// A batch may hold fewer seams than its size; where each one ends is read from the carver's DEBUG messages.
+	@Test
+	public void batchesStartWithTheExactSeamAndKeepTheirGap() {
+		for (Case c : cases()) {
+			for (int[] batchAndGap : new int[][] { { 4, 1 }, { 4, 2 }, { 7, 3 } }) {
+				int size = batchAndGap[0];
+				int gap = batchAndGap[1];
+				int seams = c.width() / 2;
+				List<Integer> ends = new ArrayList<>();
+				SeamsCarver batch = new SeamsCarver(batchEnds(ends), c.image, c.width() - seams, WEIGHTS, copy(c.mask));
+				batch.setSeamBatchSize(size);
+				batch.setSeamBatchGap(gap);
+				SeamOrderIndex index = batch.buildSeamOrderIndex();
+				assertEquals(seams, ends.get(ends.size() - 1));
+
+				int first = 0;
+				for (int end : ends) {
+					String what = c.name + ", batches of " + size + " with a gap of " + gap + ", seams " + first + " to "
+							+ end;
+					assertTrue(end > first && end - first <= size, what);
+					Case start = new Case(what, index.resize(c.image, c.width() - first),
+							index.resize(c.mask, c.width() - first));
+					SeamsCarver exact = carver(start, start.width() - 1, Orientation.VERTICAL);
+					assertSamePixels(exact.resize(), index.resize(c.image, c.width() - first - 1), what);
+					assertGap(index, first, end, gap, what);
+					first = end;
+				}
+			}
+		}
+	}
+
+	// MARK: Pyramid mode
+	// A corridor wider than the image leaves the refining DP the whole image, so the coarse seams do not matter.
+	@Test
+	public void pyramidWithTheWholeImageAsCorridorMatchesExact() {
+		for (Case c : cases()) {
+			for (Orientation orientation : Orientation.values()) {
+				int size = (orientation == Orientation.VERTICAL) ? c.width() : c.height();
+				for (int levels = 1; levels <= 2; ++levels) {
+					for (int outSize : outSizes(size)) {
+						String what = c.name + ", " + orientation + " to " + outSize + " with " + levels + " levels";
+						SeamsCarver pyramid = carver(c, outSize, orientation);
+						pyramid.setPyramidLevels(levels);
+						pyramid.setPyramidCorridor(Math.max(c.width(), c.height()));
+						SeamsCarver exact = carver(c, outSize, orientation);
+						assertSamePixels(exact.resize(), pyramid.resize(), what);
+						assertSameMask(exact.getMaskAfterSeamCarving(), pyramid.getMaskAfterSeamCarving(), what);
+					}
+				}
+			}
+		}
+	}
+
+	// Collects the number of seams removed after every batch.
+	private static Logger batchEnds(List<Integer> ends) {
+		Pattern removed = Pattern.compile("Removed seam (\\d+) of \\d+\\.");
+		return new Logger() {
+			@Override
+			public void log(String s) {
+			}
+
+			@Override
+			public boolean isEnabled(Level level) {
+				return true;
+			}
+
+			@Override
+			public void log(Level level, String s) {
+				Matcher m = removed.matcher(s);
+				if (level == Level.DEBUG && m.find())
+					ends.add(Integer.parseInt(m.group(1)));
+			}
+		};
+	}
+
+	// The cells of the seams [from, to) of the index, in the columns of the image left after the seams before from,
+	// are at least gap columns apart in every row.
+	private static void assertGap(SeamOrderIndex index, int from, int to, int gap, String what) {
+		for (int y = 0; y < index.height; ++y) {
+			int last = -gap;
+			for (int x = 0, col = 0; x < index.width; ++x) {
+				int rank = index.ranks[y * index.width + x];
+				if (rank < from)
+					continue;
+				if (rank < to) {
+					assertTrue(col - last >= gap, what + ": row " + y + " has seams " + (col - last) + " apart");
+					last = col;
+				}
+				++col;
+			}
+		}
+	}
+
+	// MARK: Helpers
+	private static List<Case> cases() {
+		List<Case> ans = new ArrayList<>();
+		for (int type : TestImages.TYPES) {
+			for (int kind = 0; kind < 3; ++kind) {
+				for (int[] size : SIZES) {
+					int width = size[0];
+					int height = size[1];
+					BufferedImage image = TestImages.image(width, height, type, 31 * kind + width, kind);
+					String name = width + "x" + height + " type " + type + " kind " + kind;
+					ans.add(new Case(name, image, TestImages.mask(width, height, width * height, 0)));
+					ans.add(new Case(name + " masked", image, TestImages.mask(width, height, width * height, 0.2)));
+				}
+			}
+		}
+		return ans;
+	}
+
+	// Reductions and enlargements from one seam to the most the carver allows, and the size itself.
+	private static int[] outSizes(int size) {
+		return new int[] { size - size / 2, size - 3, size - 1, size, size + 1, size + 3, size + size / 2 };
+	}
+
+	private static SeamsCarver carver(Case c, int outSize, Orientation orientation) {
+		return new SeamsCarver(QUIET, c.image, outSize, WEIGHTS, copy(c.mask), orientation);
+	}
+}
@@ -0,0 +1,81 @@
+package edu.cg;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+// The images, masks and comparisons the tests share.
+final class TestImages {
+	static final Logger QUIET = s -> {
+	};
+
+	// The image types the carvers are checked on: packed ints, with and without alpha, and interleaved bytes.
+	static final int[] TYPES = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR };
+
+	private TestImages() {
+	}
+
+	// Random pixels (kind 0), smooth gradients (kind 1) or a checkerboard of flat tiles with a little noise (kind 2),
+	// so the seams meet noise, edges and ties. Alpha is random in the types that keep it.
+	static BufferedImage image(int width, int height, int type, long seed, int kind) {
+		SplittableRandom random = new SplittableRandom(seed);
+		BufferedImage ans = new BufferedImage(width, height, type);
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int rgb;
+				if (kind == 0) {
+					rgb = random.nextInt(1 << 24);
+				} else if (kind == 1) {
+					rgb = (((x * 7 + y * 3) & 0xFF) << 16) | (((x * y) & 0xFF) << 8) | ((y * 5) & 0xFF);
+				} else {
+					int v = (((x / 9 + y / 13) % 2 == 0) ? 40 : 200) + random.nextInt(8);
+					rgb = (v << 16) | (v << 8) | v;
+				}
+				ans.setRGB(x, y, (random.nextInt(256) << 24) | rgb);
+			}
+		}
+		return ans;
+	}
+
+	// A disc of masked pixels covering about density of the smaller side, or no masked pixel at all for density 0.
+	static boolean[][] mask(int width, int height, long seed, double density) {
+		SplittableRandom random = new SplittableRandom(seed);
+		boolean[][] ans = new boolean[height][width];
+		if (density <= 0)
+			return ans;
+
+		int cx = random.nextInt(width);
+		int cy = random.nextInt(height);
+		int radius = (int) (Math.min(width, height) * density);
+		for (int y = 0; y < height; ++y)
+			for (int x = 0; x < width; ++x)
+				ans[y][x] = (x - cx) * (x - cx) + (y - cy) * (y - cy) < radius * radius;
+		return ans;
+	}
+
+	static boolean[][] copy(boolean[][] mask) {
+		boolean[][] ans = new boolean[mask.length][];
+		for (int y = 0; y < mask.length; ++y)
+			ans[y] = mask[y].clone();
+		return ans;
+	}
+
+	static BufferedImage transform(BufferedImage img, ImageTransform transform) {
+		return transform.apply(PixelBuffer.fromImage(img)).toImage(img.getType());
+	}
+
+	static void assertSamePixels(BufferedImage expected, BufferedImage actual, String what) {
+		assertEquals(expected.getWidth(), actual.getWidth(), what);
+		assertEquals(expected.getHeight(), actual.getHeight(), what);
+		assertEquals(expected.getType(), actual.getType(), what);
+		assertArrayEquals(PixelBuffer.fromImage(expected).pixels, PixelBuffer.fromImage(actual).pixels, what);
+	}
+
+	static void assertSameMask(boolean[][] expected, boolean[][] actual, String what) {
+		assertEquals(expected.length, actual.length, what);
+		for (int y = 0; y < expected.length; ++y)
+			assertArrayEquals(expected[y], actual[y], what + ", row " + y);
+	}
+}
@@ -0,0 +1,106 @@
+package edu.cg.vector;
+
+import java.util.function.IntUnaryOperator;
+
+import edu.cg.ImageProcessor;
+import edu.cg.PixelKernels;
+import edu.cg.RGBWeights;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// The greyscale and hue filters of ImageProcessor on the Vector API, in the widest vectors the CPU has. PixelKernels
+// loads this class by name, so the application builds and runs without it.
+//
+// The channels are taken apart, weighted and put together in int lanes. The Vector API has no fast integer
+// division, and no fast conversion from float lanes back to int ones either (on JDK 17), so a quotient n / d is
+// taken as the product of n by the float reciprocal of d, rounded to an integer by adding 2^23 (which leaves no
+// bits for a fraction) and reading the bits back as an int. For n <= 255 d < 2^24 (which is exact in a float) the
+// product is within 2^-15 of n / d, so the rounding gives the integer quotient or one more, and one more is taken
+// back where its product by d is over n. Weights with a divisor over MAX_DIVISOR (or with negative weights) are
+// left to the scalar operators.
+public class VectorKernels implements PixelKernels.Provider {
+	public static final int MAX_DIVISOR = 65535;
+
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final float ROUNDING = 1 << 23;
+	private static final int ROUNDING_BITS = Float.floatToRawIntBits(ROUNDING);
+
+	public VectorKernels() {
+		if (INTS.length() < 4)
+			throw new UnsupportedOperationException("The vectors of this CPU hold only " + INTS.length() + " ints");
+	}
+
+	@Override
+	public String description() {
+		return "Vector API, " + INTS.length() + " int lanes (" + INTS.vectorBitSize() + " bit)";
+	}
+
+	@Override
+	public PixelKernels.Kernel greyscale(RGBWeights weights) {
+		int r = weights.redWeight;
+		int g = weights.greenWeight;
+		int b = weights.blueWeight;
+		int amount = r + g + b;
+		if (!exact(weights, amount))
+			return null;
+
+		float reciprocal = 1f / amount;
+		IntUnaryOperator tail = ImageProcessor.greyscaleOperator(weights);
+		return (src, dst, from, to) -> {
+			int i = from;
+			for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+				IntVector c = IntVector.fromArray(INTS, src, i);
+				IntVector sum = channel(c, 16).mul(r).add(channel(c, 8).mul(g)).add(channel(c, 0).mul(b));
+				IntVector greyHue = quotient(sum, amount, reciprocal);
+				greyHue.mul(0x010101).or(0xFF000000).intoArray(dst, i);
+			}
+			for (; i < to; ++i)
+				dst[i] = tail.applyAsInt(src[i]);
+		};
+	}
+
+	@Override
+	public PixelKernels.Kernel hue(RGBWeights weights) {
+		int r = weights.redWeight;
+		int g = weights.greenWeight;
+		int b = weights.blueWeight;
+		int max = weights.maxWeight;
+		if (!exact(weights, max))
+			return null;
+
+		float reciprocal = 1f / max;
+		IntUnaryOperator tail = ImageProcessor.hueOperator(weights);
+		return (src, dst, from, to) -> {
+			int i = from;
+			for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+				IntVector c = IntVector.fromArray(INTS, src, i);
+				IntVector red = quotient(channel(c, 16).mul(r), max, reciprocal);
+				IntVector green = quotient(channel(c, 8).mul(g), max, reciprocal);
+				IntVector blue = quotient(channel(c, 0).mul(b), max, reciprocal);
+				red.lanewise(VectorOperators.LSHL, 16).or(green.lanewise(VectorOperators.LSHL, 8)).or(blue)
+						.or(0xFF000000).intoArray(dst, i);
+			}
+			for (; i < to; ++i)
+				dst[i] = tail.applyAsInt(src[i]);
+		};
+	}
+
+	// Whether quotient divides every weighted channel (or sum of them) by the divisor exactly.
+	private static boolean exact(RGBWeights weights, int divisor) {
+		return weights.redWeight >= 0 && weights.greenWeight >= 0 && weights.blueWeight >= 0 && divisor > 0
+				&& divisor <= MAX_DIVISOR;
+	}
+
+	private static IntVector channel(IntVector c, int shift) {
+		return c.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+	}
+
+	// n / divisor in every lane, for 0 <= n <= 255 * divisor (see above).
+	private static IntVector quotient(IntVector n, int divisor, float reciprocal) {
+		FloatVector q = ((FloatVector) n.convert(VectorOperators.I2F, 0)).mul(reciprocal).add(ROUNDING);
+		IntVector ans = q.reinterpretAsInts().sub(ROUNDING_BITS);
+		return ans.sub(1, ans.mul(divisor).compare(VectorOperators.GT, n));
+	}
+}
@@ -0,0 +1,149 @@
+package edu.cg.vector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+import edu.cg.ImageProcessor;
+import edu.cg.PixelKernels;
+import edu.cg.RGBWeights;
+import jdk.incubator.vector.IntVector;
+
+// The Vector API kernels against the scalar kernels and the operators of ImageProcessor, on every value of every
+// channel, on random pixels, and on runs of every length up to a few vectors from several starting points (so the
+// scalar tails are checked too).
+public class VectorKernelsTest {
+	private static final int LANES = IntVector.SPECIES_PREFERRED.length();
+	private static final int SENTINEL = 0x12345678;
+
+	private final VectorKernels kernels = new VectorKernels();
+
+	@Test
+	public void pickedByPixelKernels() {
+		assertTrue(PixelKernels.description().startsWith("Vector API"), PixelKernels.description());
+	}
+
+	@Test
+	public void greyscale() {
+		int[] src = PixelKernels.probes(10007, 1);
+		for (RGBWeights weights : weights()) {
+			PixelKernels.Kernel vector = kernels.greyscale(weights);
+			if (weights.weightsAmount > VectorKernels.MAX_DIVISOR) {
+				assertNull(vector, weights.toString());
+				continue;
+			}
+			assertNotNull(vector, weights.toString());
+
+			IntUnaryOperator op = ImageProcessor.greyscaleOperator(weights);
+			compare(weights.toString(), vector, op, src);
+			compare(weights.toString(), PixelKernels.scalar(op), op, src);
+			compare(weights.toString(), PixelKernels.greyscale(weights), op, src);
+		}
+	}
+
+	@Test
+	public void hue() {
+		int[] src = PixelKernels.probes(10007, 2);
+		for (RGBWeights weights : weights()) {
+			PixelKernels.Kernel vector = kernels.hue(weights);
+			if (weights.maxWeight > VectorKernels.MAX_DIVISOR) {
+				assertNull(vector, weights.toString());
+				continue;
+			}
+			assertNotNull(vector, weights.toString());
+
+			IntUnaryOperator op = ImageProcessor.hueOperator(weights);
+			compare(weights.toString(), vector, op, src);
+			compare(weights.toString(), PixelKernels.scalar(op), op, src);
+			compare(weights.toString(), PixelKernels.hue(weights), op, src);
+		}
+	}
+
+	// The vector kernels decline the weights with no divisor, and the scalar ones throw for them as before.
+	@Test
+	public void zeroWeights() {
+		RGBWeights zero = new RGBWeights(0, 0, 0);
+		int[] src = PixelKernels.probes(1024, 3);
+		int[] dst = new int[src.length];
+
+		assertNull(kernels.greyscale(zero));
+		assertNull(kernels.hue(zero));
+		assertThrows(ArithmeticException.class, () -> PixelKernels.greyscale(zero).apply(src, dst, 0, src.length));
+		assertThrows(ArithmeticException.class, () -> PixelKernels.hue(zero).apply(src, dst, 0, src.length));
+	}
+
+	@Test
+	public void inPlace() {
+		RGBWeights weights = new RGBWeights(37, 59, 11);
+		int[] src = PixelKernels.probes(1024 + 4 * LANES + 3, 4);
+		int[] greyscale = src.clone();
+		int[] hue = src.clone();
+
+		kernels.greyscale(weights).apply(greyscale, greyscale, 0, src.length);
+		kernels.hue(weights).apply(hue, hue, 0, src.length);
+		for (int i = 0; i < src.length; ++i) {
+			assertEquals(ImageProcessor.greyscaleOperator(weights).applyAsInt(src[i]), greyscale[i]);
+			assertEquals(ImageProcessor.hueOperator(weights).applyAsInt(src[i]), hue[i]);
+		}
+	}
+
+	// The chained kernels of a fused pass of Pipeline, over runs longer than a chunk and off the chunk boundaries.
+	@Test
+	public void andThen() {
+		RGBWeights weights = new RGBWeights(37, 59, 11);
+		int[] src = PixelKernels.probes(2 * PixelKernels.FUSED_CHUNK + 5 * LANES + 3, 5);
+		IntUnaryOperator op = ImageProcessor.hueOperator(weights).andThen(ImageProcessor.greyscaleOperator(weights));
+		compare("hue + greyscale", kernels.hue(weights).andThen(kernels.greyscale(weights)), op, src);
+		compare("hue + greyscale", kernels.hue(weights).andThen(kernels.greyscale(weights)), op, src, 7,
+				src.length - 2);
+	}
+
+	// The whole run, then runs (of the random pixels at its end) of every length up to three vectors and a bit,
+	// starting on a vector boundary and off it, with dst untouched outside of them.
+	private static void compare(String what, PixelKernels.Kernel kernel, IntUnaryOperator op, int[] src) {
+		compare(what, kernel, op, src, 0, src.length);
+		int[] tail = Arrays.copyOfRange(src, src.length - (5 * LANES + 8), src.length);
+		for (int from : new int[] { 0, 1, LANES - 1, LANES + 3 })
+			for (int length = 0; length <= 3 * LANES + 2; ++length)
+				compare(what, kernel, op, tail, from, from + length);
+	}
+
+	private static void compare(String what, PixelKernels.Kernel kernel, IntUnaryOperator op, int[] src, int from,
+			int to) {
+		int[] dst = new int[src.length];
+		Arrays.fill(dst, SENTINEL);
+		kernel.apply(src, dst, from, to);
+		for (int i = 0; i < src.length; ++i) {
+			int expected = (i < from || i >= to) ? SENTINEL : op.applyAsInt(src[i]);
+			if (dst[i] != expected) {
+				assertEquals(expected, dst[i], String.format("%s, run [%d, %d), at %d (pixel %08x)", what, from, to, i,
+						src[i]));
+			}
+		}
+	}
+
+	// The weights PixelKernels checks the kernels with, the largest divisors the vector kernels take and the
+	// smallest they don't, then random weights in the menu's range.
+	private static List<RGBWeights> weights() {
+		List<RGBWeights> ans = new ArrayList<>(Arrays.asList(PixelKernels.probeWeights()));
+		ans.addAll(List.of(new RGBWeights(21845, 21845, 21846), new RGBWeights(65535, 0, 1),
+				new RGBWeights(0, 65536, 0)));
+		SplittableRandom random = new SplittableRandom(0x5EED);
+		while (ans.size() < 40) {
+			RGBWeights weights = new RGBWeights(random.nextInt(101), random.nextInt(101), random.nextInt(101));
+			if (weights.weightsAmount > 0)
+				ans.add(weights);
+		}
+		return ans;
+	}
+}